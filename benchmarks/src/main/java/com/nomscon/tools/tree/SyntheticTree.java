@@ -0,0 +1,109 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Generates the directory shapes the benchmarks run against.
+ */
+final class SyntheticTree {
+    private SyntheticTree() { }
+
+    // returns the number of entries created below root
+    static int create(Path root, String shape) throws IOException {
+        switch (shape) {
+            case "deep":
+                return createDeep(root, 200, 5);
+            case "wide":
+                return createWide(root, 20000, 200, 20);
+            case "hidden":
+                return createHidden(root, 50, 100);
+            case "links":
+                return createLinked(root, 4, 6, 10);
+            default:
+                throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+    }
+
+    static void delete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static int createDeep(Path root, int depth, int filesPerDir) throws IOException {
+        int count = 0;
+        Path dir = root;
+        for (int level = 0; level < depth; level++) {
+            count += createFiles(dir, filesPerDir, "file");
+            dir = Files.createDirectory(dir.resolve("level" + level));
+            count++;
+        }
+        return count;
+    }
+
+    private static int createWide(Path root, int fileCount, int dirCount, int filesPerDir)
+            throws IOException {
+        int count = createFiles(root, fileCount, "file");
+        for (int i = 0; i < dirCount; i++) {
+            Path dir = Files.createDirectory(root.resolve(String.format("dir%05d", i)));
+            count += 1 + createFiles(dir, filesPerDir, "file");
+        }
+        return count;
+    }
+
+    private static int createHidden(Path root, int dirCount, int filesPerDir) throws IOException {
+        int count = 0;
+        for (int i = 0; i < dirCount; i++) {
+            String prefix = (i % 2 == 0) ? "." : "";
+            Path dir = Files.createDirectory(root.resolve(prefix + "dir" + i));
+            count++;
+            count += createFiles(dir, filesPerDir / 2, "file");
+            count += createFiles(dir, filesPerDir / 2, ".file");
+        }
+        return count;
+    }
+
+    // a balanced tree where every leaf also links back to the root, which
+    // the listing shows as a file unless it follows links
+    private static int createLinked(Path root, int depth, int fanout, int filesPerDir)
+            throws IOException {
+        return createLinked(root, root, depth, fanout, filesPerDir);
+    }
+
+    private static int createLinked(Path root, Path dir, int depth, int fanout, int filesPerDir)
+            throws IOException {
+        int count = createFiles(dir, filesPerDir, "file");
+        if (depth == 0) {
+            Files.createSymbolicLink(dir.resolve("loop"), root.toAbsolutePath());
+            return count + 1;
+        }
+        for (int i = 0; i < fanout; i++) {
+            Path subDir = Files.createDirectory(dir.resolve("dir" + i));
+            count += 1 + createLinked(root, subDir, depth - 1, fanout, filesPerDir);
+        }
+        return count;
+    }
+
+    private static int createFiles(Path dir, int count, String prefix) throws IOException {
+        byte[] content = new byte[64];
+        for (int i = 0; i < count; i++) {
+            Files.write(dir.resolve(prefix + i + ".txt"), content);
+        }
+        return count;
+    }
+}
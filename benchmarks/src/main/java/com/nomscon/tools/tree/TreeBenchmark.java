@@ -0,0 +1,133 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lists synthetic trees through each engine with the output going to a
+ * NullSink. The "entries" counter is the walk rate in entries per second;
+ * with -prof gc, divide gc.alloc.rate.norm by the entry count of the shape
+ * to get the allocation per entry. scanOnly reads the same tree without
+ * rendering, so the difference to listing is the render cost (it does not
+ * depend on the engine parameter). Links are listed without following
+ * them, as the listing does without -l, so the loops of the links shape
+ * are never entered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeBenchmark {
+
+    @Param({"deep", "wide", "hidden", "links"})
+    public String shape;
+
+    @Param({"default", "sorted", "parallel", "streamed"})
+    public String engine;
+
+    @Param({"visible", "all"})
+    public String filter;
+
+    private Path root;
+    private int entryCount;
+    private String[] args;
+    private final NullSink sink = new NullSink();
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Entries {
+        public long entries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            entries = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = Files.createTempDirectory("tree-bench-");
+        entryCount = SyntheticTree.create(root, shape);
+
+        List<String> argList = new ArrayList<>();
+        switch (engine) {
+            case "sorted":
+                argList.add("--threads");
+                argList.add("1");
+                break;
+            case "parallel":
+                argList.add("--threads");
+                argList.add(String.valueOf(Runtime.getRuntime().availableProcessors()));
+                break;
+            case "streamed":
+                argList.add("--threads");
+                argList.add("1");
+                argList.add("--memlimit");
+                argList.add("1024");
+                break;
+            default:
+                break;
+        }
+        if (filter.equals("all")) {
+            argList.add("-a");
+        }
+        argList.add("-s");
+        argList.add("-D");
+        argList.add(root.toString());
+        args = argList.toArray(new String[argList.size()]);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        SyntheticTree.delete(root);
+    }
+
+    @Benchmark
+    public int listing(Entries counter) {
+        Log.setSink(sink);
+        int result = new Tree().run(args);
+        counter.entries += entryCount;
+        return result;
+    }
+
+    @Benchmark
+    public long scanOnly(Entries counter) throws IOException {
+        long count = scan(new DirReader(false), root, filter.equals("all"));
+        counter.entries += entryCount;
+        return count;
+    }
+
+    private static long scan(DirReader reader, Path dir, boolean includeHidden) throws IOException {
+        long count = 0;
+        for (DirEntry entry : reader.read(dir)) {
+            if (entry.isHidden && !includeHidden) {
+                continue;
+            }
+            count++;
+            if (entry.isDir) {
+                count += scan(reader, entry.path, includeHidden);
+            }
+        }
+        return count;
+    }
+}
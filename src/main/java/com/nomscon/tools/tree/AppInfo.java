@@ -1,6 +1,7 @@
 package com.nomscon.tools.tree;
 
 import java.io.IOException;
+import java.security.CodeSource;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.JarFile;
@@ -14,11 +15,14 @@ final class AppInfo {
     static {
         pkg = AppInfo.class.getPackage();
 
-        String path = Program.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+        // a native image has no code source, nor a manifest
+        CodeSource source = Program.class.getProtectionDomain().getCodeSource();
         Manifest mf = null;
         try {
-            JarFile jar = new JarFile(path);  // or can give a File handle
-            mf = jar.getManifest();
+            if (source != null) {
+                JarFile jar = new JarFile(source.getLocation().getPath());  // or can give a File handle
+                mf = jar.getManifest();
+            }
         } catch (IOException ex) {
             // TODO: log ?
         }
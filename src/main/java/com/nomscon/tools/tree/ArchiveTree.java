@@ -0,0 +1,213 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The entries of a ZIP (JAR, WAR...) or TAR archive, listed without
+ * extracting anything: only the central directory of a ZIP is read, and
+ * only the header blocks of a TAR, seeking past the contents. The entries
+ * are held in a {@link TreeModel} and the archive's own path stands for its
+ * root, so entry a/b of x.jar is listed as x.jar/a/b. Directories the
+ * archive has no entry for are implied by the paths below them.
+ */
+final class ArchiveTree implements TreeSource {
+    final static int ZIP = 1;
+    final static int TAR = 2;
+    final static int TAR_GZIP = 3;
+
+    // the tar magic is at 257, past the first bytes of the name
+    private final static int SNIFF_LENGTH = 263;
+
+    private final Path file;
+    private final long lastModified;
+    private final TreeModel model = new TreeModel();
+    // the dirs by their path in the archive, "" for the root
+    private final Map<String, Integer> dirs = new HashMap<>();
+
+    private ArchiveTree(Path file) throws IOException {
+        this.file = file;
+        this.lastModified = Files.getLastModifiedTime(file).toMillis();
+        String name = String.valueOf(file.getFileName());
+        dirs.put("", model.add(TreeModel.NONE, name, true, false, false, 0, lastModified));
+    }
+
+    // whether path is a file in a format read here
+    static boolean isArchive(Path path) {
+        return Files.isRegularFile(path) && getFormat(path) != 0;
+    }
+
+    public static ArchiveTree read(Path file) throws IOException {
+        ArchiveTree tree = new ArchiveTree(file);
+        switch (getFormat(file)) {
+            case ZIP:
+                ZipReader.read(file, tree);
+                break;
+            case TAR:
+                TarReader.read(file, tree);
+                break;
+            case TAR_GZIP:
+                TarReader.readGzip(file, tree);
+                break;
+            default:
+                throw new IOException("not a zip or tar archive: " + file);
+        }
+        return tree;
+    }
+
+    // adds an entry by its path in the archive; a dir that is already there,
+    // implied by an earlier entry, only gets its time
+    void add(String entryPath, boolean isDir, boolean isFile, long size, long lastModified) {
+        String path = normalize(entryPath);
+        if (path.isEmpty()) {
+            return;
+        }
+        if (isDir) {
+            Integer dir = dirs.get(path);
+            if (dir != null) {
+                model.update(dir, 0, lastModified);
+                return;
+            }
+        }
+        int slash = path.lastIndexOf('/');
+        int parent = getDir(path.substring(0, Math.max(slash, 0)));
+        String name = path.substring(slash + 1);
+        int index = model.add(parent, name, isDir, isFile, name.startsWith("."),
+                isDir ? 0 : size, lastModified);
+        if (isDir) {
+            dirs.put(path, index);
+        }
+    }
+
+    @Override
+    public DirEntry readEntry(Path path) {
+        Integer dir = dirs.get(getEntryPath(path));
+        return (dir != null) ? model.toEntry(dir, path) : null;
+    }
+
+    @Override
+    public boolean read(Path dir, DirReader.EntryHandler handler, int entryLimit)
+            throws IOException {
+        Integer index = dirs.get(getEntryPath(dir));
+        if (index == null) {
+            throw new NoSuchFileException(dir.toString());
+        }
+        if (entryLimit > 0) {
+            int count = 0;
+            for (int child = model.getFirstChild(index); child != TreeModel.NONE;
+                    child = model.getNextSibling(child)) {
+                if (++count > entryLimit) {
+                    return false;
+                }
+            }
+        }
+        for (int child = model.getFirstChild(index); child != TreeModel.NONE;
+                child = model.getNextSibling(child)) {
+            handler.accept(model.toEntry(child, dir.resolve(model.getName(child))));
+        }
+        return true;
+    }
+
+    // the dir at path, adding it and the dirs above it when they are missing
+    private int getDir(String path) {
+        Integer dir = dirs.get(path);
+        if (dir != null) {
+            return dir;
+        }
+        int slash = path.lastIndexOf('/');
+        int parent = getDir(path.substring(0, Math.max(slash, 0)));
+        String name = path.substring(slash + 1);
+        int index = model.add(parent, name, true, false, name.startsWith("."), 0, lastModified);
+        dirs.put(path, index);
+        return index;
+    }
+
+    // the path below the archive's own path, with '/' separators
+    private String getEntryPath(Path path) {
+        if (!path.startsWith(file)) {
+            return null;
+        }
+        StringBuilder entryPath = new StringBuilder();
+        for (Path name : file.relativize(path)) {
+            String part = name.toString();
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (entryPath.length() > 0) {
+                entryPath.append('/');
+            }
+            entryPath.append(part);
+        }
+        return entryPath.toString();
+    }
+
+    // without leading and trailing slashes and "." steps
+    private static String normalize(String entryPath) {
+        StringBuilder path = new StringBuilder(entryPath.length());
+        for (String part : entryPath.split("/")) {
+            if (part.isEmpty() || part.equals(".")) {
+                continue;
+            }
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            path.append(part);
+        }
+        return path.toString();
+    }
+
+    private static int getFormat(Path file) {
+        byte[] head = new byte[SNIFF_LENGTH];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int length = readFully(channel, ByteBuffer.wrap(head));
+            if (length >= 4 && head[0] == 'P' && head[1] == 'K'
+                    && ((head[2] == 3 && head[3] == 4) || (head[2] == 5 && head[3] == 6))) {
+                return ZIP;
+            }
+            if (length == SNIFF_LENGTH && isTarHeader(head)) {
+                return TAR;
+            }
+            if (length >= 2 && (head[0] & 0xFF) == 0x1F && (head[1] & 0xFF) == 0x8B) {
+                channel.position(0);
+                InputStream in = new GZIPInputStream(Channels.newInputStream(channel));
+                int read = 0;
+                int n;
+                while (read < SNIFF_LENGTH && (n = in.read(head, read, SNIFF_LENGTH - read)) > 0) {
+                    read += n;
+                }
+                return (read == SNIFF_LENGTH && isTarHeader(head)) ? TAR_GZIP : 0;
+            }
+        } catch (IOException ex) {
+            // unreadable, or compressed but not a tar
+        }
+        return 0;
+    }
+
+    // "ustar" at 257, for both POSIX and GNU tar
+    private static boolean isTarHeader(byte[] head) {
+        return head[257] == 'u' && head[258] == 's' && head[259] == 't'
+                && head[260] == 'a' && head[261] == 'r';
+    }
+
+    static int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,168 @@
+package com.nomscon.tools.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the command line against a table of options by hand. It takes
+ * what the commons-cli PosixParser took: -abc for -a -b -c, -L2 and -L 2,
+ * --level 2 and --level=2, options mixed with arguments, and -- ending the
+ * options. Loading and setting up commons-cli took longer than listing a
+ * small directory, so it is only used to format the help now.
+ */
+final class ArgParser {
+    private final List<Option> options = new ArrayList<>();
+    private final Map<String, Option> byOpt = new HashMap<>();
+    private final Map<String, Option> byLongOpt = new HashMap<>();
+
+    public void addOption(String opt, String longOpt, boolean hasArg, String argName,
+            String description) {
+        Option option = new Option(opt, longOpt, hasArg, argName, description);
+        options.add(option);
+        if (opt != null) {
+            byOpt.put(opt, option);
+        }
+        if (longOpt != null) {
+            byLongOpt.put(longOpt, option);
+        }
+    }
+
+    // in the order they were added
+    public List<Option> getOptions() { return options; }
+
+    public CommandLine parse(String[] args) throws UsageException {
+        CommandLine cmdLine = new CommandLine();
+        boolean isOptionsEnd = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (isOptionsEnd || arg.length() < 2 || arg.charAt(0) != '-') {
+                cmdLine.args.add(arg);
+            } else if (arg.equals("--")) {
+                isOptionsEnd = true;
+            } else if (arg.startsWith("--")) {
+                int equals = arg.indexOf('=');
+                String name = arg.substring(2, (equals < 0) ? arg.length() : equals);
+                Option option = byLongOpt.get(name);
+                if (option == null || (equals >= 0 && !option.hasArg)) {
+                    throw unrecognized(arg);
+                }
+                String value = null;
+                if (option.hasArg) {
+                    value = (equals >= 0) ? arg.substring(equals + 1) : getValue(args, ++i, option);
+                }
+                cmdLine.add(option, value);
+            } else {
+                // a burst of short options, the last of which may take the rest as its value
+                for (int j = 1; j < arg.length(); j++) {
+                    Option option = byOpt.get(arg.substring(j, j + 1));
+                    if (option == null) {
+                        throw unrecognized("-" + arg.charAt(j));
+                    }
+                    if (!option.hasArg) {
+                        cmdLine.add(option, null);
+                        continue;
+                    }
+                    cmdLine.add(option, (j + 1 < arg.length())
+                            ? arg.substring(j + 1)
+                            : getValue(args, ++i, option));
+                    break;
+                }
+            }
+        }
+        return cmdLine;
+    }
+
+    // the value in args[i], which is missing when it is another option
+    private String getValue(String[] args, int i, Option option) throws UsageException {
+        if (i >= args.length || isOption(args[i])) {
+            throw new UsageException("Missing argument for option: " + option.getName(), null);
+        }
+        return args[i];
+    }
+
+    private boolean isOption(String arg) {
+        if (arg.startsWith("--")) {
+            int equals = arg.indexOf('=');
+            return byLongOpt.containsKey(arg.substring(2, (equals < 0) ? arg.length() : equals));
+        }
+        return arg.length() > 1 && arg.charAt(0) == '-' && byOpt.containsKey(arg.substring(1, 2));
+    }
+
+    private static UsageException unrecognized(String arg) {
+        return new UsageException("Unrecognized option: " + arg, null);
+    }
+
+    static final class Option {
+        final String opt;
+        final String longOpt;
+        final boolean hasArg;
+        final String argName;
+        final String description;
+
+        Option(String opt, String longOpt, boolean hasArg, String argName, String description) {
+            this.opt = opt;
+            this.longOpt = longOpt;
+            this.hasArg = hasArg;
+            this.argName = argName;
+            this.description = description;
+        }
+
+        String getName() {
+            return (opt != null) ? opt : longOpt;
+        }
+    }
+
+    /**
+     * The options found, each known by its short or long name, and the
+     * arguments that were not options, in the order given.
+     */
+    static final class CommandLine {
+        private final Map<Option, List<String>> values = new HashMap<>();
+        private final List<String> args = new ArrayList<>();
+        // to look options up by name
+        private final Map<String, Option> found = new HashMap<>();
+
+        private void add(Option option, String value) {
+            List<String> optionValues = values.get(option);
+            if (optionValues == null) {
+                optionValues = new ArrayList<>(1);
+                values.put(option, optionValues);
+                if (option.opt != null) {
+                    found.put(option.opt, option);
+                }
+                if (option.longOpt != null) {
+                    found.put(option.longOpt, option);
+                }
+            }
+            if (value != null) {
+                optionValues.add(value);
+            }
+        }
+
+        public boolean hasOption(String name) {
+            return found.containsKey(name);
+        }
+
+        // the first value given, null when the option was not
+        public String getOptionValue(String name) {
+            String[] optionValues = getOptionValues(name);
+            return (optionValues != null) ? optionValues[0] : null;
+        }
+
+        // every value given, null when the option was not
+        public String[] getOptionValues(String name) {
+            Option option = found.get(name);
+            if (option == null || values.get(option).isEmpty()) {
+                return null;
+            }
+            List<String> optionValues = values.get(option);
+            return optionValues.toArray(new String[optionValues.size()]);
+        }
+
+        public String[] getArgs() {
+            return args.toArray(new String[args.size()]);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.nomscon.tools.tree;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffers characters and encodes them as UTF-8 into a byte channel with one
+ * reused encoder. Nothing reaches the channel until a buffer fills up or the
+ * sink is flushed.
+ */
+final class ChannelSink implements OutputSink {
+    private final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private final static String LINE_SEPARATOR = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+
+    private long drained = 0;
+    private boolean error = false;
+
+    ChannelSink(WritableByteChannel channel, boolean closeChannel, int bufferSize) {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.chars = CharBuffer.allocate(bufferSize);
+        this.bytes = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public static ChannelSink forStdout() {
+        FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+        return new ChannelSink(out, false, DEFAULT_BUFFER_SIZE);
+    }
+
+    public static ChannelSink forStderr() {
+        FileChannel out = new FileOutputStream(FileDescriptor.err).getChannel();
+        return new ChannelSink(out, false, DEFAULT_BUFFER_SIZE);
+    }
+
+    public static ChannelSink forFile(Path file) throws IOException {
+        FileChannel out = FileChannel.open(file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        return new ChannelSink(out, true, DEFAULT_BUFFER_SIZE);
+    }
+
+    // a spool that can be replayed, deleted when closed
+    public static ChannelSink forTempFile() throws IOException {
+        Path file = Files.createTempFile("tree-", ".tmp");
+        FileChannel out = FileChannel.open(file,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        return new ChannelSink(out, true, DEFAULT_BUFFER_SIZE);
+    }
+
+    // writes everything this file sink holds to target
+    public void copyTo(OutputSink target) {
+        flush();
+        FileChannel in = (FileChannel) channel;
+        try {
+            if (target instanceof ChannelSink) {
+                ((ChannelSink) target).transferFrom(in, drained);
+            } else {
+                decodeTo(target, in, drained);
+            }
+        } catch (IOException ex) {
+            error = true;
+        }
+    }
+
+    @Override
+    public void write(CharSequence value) {
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            if (!chars.hasRemaining()) {
+                encode();
+            }
+            chars.put(value.charAt(i));
+        }
+    }
+
+    @Override
+    public void newLine() {
+        write(LINE_SEPARATOR);
+    }
+
+    @Override
+    public void flush() {
+        encode();
+        drain();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (closeChannel) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                error = true;
+            }
+        }
+    }
+
+    @Override
+    public boolean checkError() {
+        return error;
+    }
+
+    private void transferFrom(FileChannel in, long length) throws IOException {
+        flush();
+        long copied = 0;
+        while (copied < length && !error) {
+            copied += in.transferTo(copied, length - copied, channel);
+        }
+        drained += length;
+    }
+
+    private static void decodeTo(OutputSink target, FileChannel in, long length) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer src = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        CharBuffer dst = CharBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        long position = 0;
+        boolean isEnd = false;
+        while (!isEnd) {
+            int read = (position < length) ? in.read(src, position) : -1;
+            if (read > 0) {
+                position += read;
+            }
+            isEnd = read <= 0;
+            src.flip();
+            decoder.decode(src, dst, isEnd);
+            if (isEnd) {
+                decoder.flush(dst);
+            }
+            dst.flip();
+            target.write(dst);
+            dst.clear();
+            src.compact();
+        }
+    }
+
+    private void encode() {
+        chars.flip();
+        // a trailing high surrogate stays behind until its pair arrives
+        while (encoder.encode(chars, bytes, false) == CoderResult.OVERFLOW) {
+            drain();
+        }
+        chars.compact();
+    }
+
+    private void drain() {
+        bytes.flip();
+        try {
+            while (bytes.hasRemaining() && !error) {
+                drained += channel.write(bytes);
+            }
+        } catch (IOException ex) {
+            error = true;
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,81 @@
+package com.nomscon.tools.tree;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A checksum over the content of one file at a time, fed in buffers and
+ * finished as lower case hex. Instances are reused but not shared.
+ */
+abstract class ContentHash {
+    private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    final static String SHA256 = "sha256";
+    final static String XXH64 = "xxh64";
+    final static String CRC32C = "crc32c";
+
+    static boolean isSupported(String name) {
+        return SHA256.equals(name) || XXH64.equals(name) || CRC32C.equals(name);
+    }
+
+    static ContentHash create(String name) {
+        switch (name) {
+            case SHA256:
+                return new Sha256();
+            case XXH64:
+                return new Xxh64();
+            case CRC32C:
+                return new Crc32c();
+            default:
+                throw new IllegalArgumentException("unknown hash: " + name);
+        }
+    }
+
+    // consumes the remaining bytes of buffer
+    abstract void update(ByteBuffer buffer);
+
+    // returns the hex digest and starts over
+    abstract String finish();
+
+    static String toHex(long value, int byteCount) {
+        char[] hex = new char[byteCount * 2];
+        for (int i = hex.length - 1; i >= 0; i--) {
+            hex[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        return new String(hex);
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private static final class Sha256 extends ContentHash {
+        private final MessageDigest digest;
+
+        Sha256() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                // every Java platform has to provide SHA-256
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        void update(ByteBuffer buffer) {
+            digest.update(buffer);
+        }
+
+        @Override
+        String finish() {
+            return toHex(digest.digest());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.nomscon.tools.tree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * CRC-32C (Castagnoli), as used by iSCSI, ext4 and cloud object stores.
+ * Java 7 has no implementation, so this one processes eight bytes per step
+ * with the slicing-by-8 tables.
+ */
+final class Crc32c extends ContentHash {
+    private final static int POLYNOMIAL = 0x82F63B78;   // reversed 0x1EDC6F41
+    private final static int[][] TABLES = createTables();
+
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    void update(ByteBuffer buffer) {
+        ByteBuffer in = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int c = crc;
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        while (in.remaining() >= 8) {
+            int lo = in.getInt() ^ c;
+            int hi = in.getInt();
+            c = t7[lo & 0xFF] ^ t6[(lo >>> 8) & 0xFF] ^ t5[(lo >>> 16) & 0xFF] ^ t4[lo >>> 24]
+                    ^ t3[hi & 0xFF] ^ t2[(hi >>> 8) & 0xFF] ^ t1[(hi >>> 16) & 0xFF] ^ t0[hi >>> 24];
+        }
+        while (in.hasRemaining()) {
+            c = t0[(c ^ in.get()) & 0xFF] ^ (c >>> 8);
+        }
+        crc = c;
+    }
+
+    @Override
+    String finish() {
+        String hex = toHex(~crc & 0xFFFFFFFFL, 4);
+        crc = 0xFFFFFFFF;
+        return hex;
+    }
+
+    private static int[][] createTables() {
+        int[][] tables = new int[8][256];
+        for (int i = 0; i < 256; i++) {
+            int c = i;
+            for (int bit = 0; bit < 8; bit++) {
+                c = ((c & 1) != 0) ? (c >>> 1) ^ POLYNOMIAL : c >>> 1;
+            }
+            tables[0][i] = c;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int t = 1; t < 8; t++) {
+                int previous = tables[t - 1][i];
+                tables[t][i] = tables[0][previous & 0xFF] ^ (previous >>> 8);
+            }
+        }
+        return tables;
+    }
+}
@@ -0,0 +1,117 @@
+package com.nomscon.tools.tree;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Digests from earlier runs, keyed by absolute path and valid while the
+ * file keeps its size and modification time. The cache file is plain text,
+ * a header naming the hash and then one "size, time, digest, path" line per
+ * file, tab separated. Only the files listed by this run are saved, and the
+ * file is replaced as a whole, so an interrupted run keeps the previous one.
+ */
+final class DigestCache {
+    private final static String HEADER = "tree-hashcache 1 ";
+
+    private final Path cacheFile;
+    private final String hashName;
+    // only read by the listing thread
+    private final Map<String, CachedDigest> previous = new HashMap<>();
+    // filled by the listing thread on hits and by the hashing workers
+    private final Map<String, CachedDigest> current = new ConcurrentHashMap<>();
+
+    private DigestCache(Path cacheFile, String hashName) {
+        this.cacheFile = cacheFile;
+        this.hashName = hashName;
+    }
+
+    // a missing file, or one for another hash, gives an empty cache
+    public static DigestCache load(Path cacheFile, String hashName) throws IOException {
+        DigestCache cache = new DigestCache(cacheFile, hashName);
+        try (BufferedReader in = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            if (!(HEADER + hashName).equals(in.readLine())) {
+                return cache;
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length == 4) {
+                    try {
+                        cache.previous.put(fields[3], new CachedDigest(
+                                Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+                    } catch (NumberFormatException ex) {
+                        // skip the damaged line
+                    }
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            // first run
+        }
+        return cache;
+    }
+
+    public String get(DirEntry file) {
+        String key = file.getAbsolutePath();
+        CachedDigest cached = previous.get(key);
+        if (cached == null || cached.size != file.size || cached.lastModified != file.lastModified) {
+            return null;
+        }
+        current.put(key, cached);
+        return cached.digest;
+    }
+
+    public void put(DirEntry file, String digest) {
+        String key = file.getAbsolutePath();
+        // a name with a line break cannot be stored on one line
+        if (key.indexOf('\n') < 0 && key.indexOf('\r') < 0) {
+            current.put(key, new CachedDigest(file.size, file.lastModified, digest));
+        }
+    }
+
+    public void save() throws IOException {
+        Path absoluteFile = cacheFile.toAbsolutePath();
+        Path tempFile = Files.createTempFile(absoluteFile.getParent(), ".tree-hashcache-", ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                out.write(HEADER + hashName);
+                out.newLine();
+                for (Map.Entry<String, CachedDigest> entry : current.entrySet()) {
+                    CachedDigest cached = entry.getValue();
+                    out.write(cached.size + "\t" + cached.lastModified + "\t" + cached.digest
+                            + "\t" + entry.getKey());
+                    out.newLine();
+                }
+            }
+            try {
+                Files.move(tempFile, absoluteFile,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static final class CachedDigest {
+        final long size;
+        final long lastModified;
+        final String digest;
+
+        CachedDigest(long size, long lastModified, String digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.nomscon.tools.tree;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A directory entry with the attributes that were read together with it,
+ * so classifying and decorating it needs no further file system calls.
+ */
+final class DirEntry {
+    final Path path;
+    final String name;
+    final boolean isDir;
+    final boolean isFile;
+    final boolean isHidden;
+    final boolean isLink;
+    final long size;
+    final long lastModified;
+
+    // a link that is not followed is listed as a file, with its own size
+    DirEntry(Path path, String name, BasicFileAttributes attrs, boolean isHidden) {
+        this(path, name, attrs.isDirectory(), attrs.isRegularFile() || attrs.isSymbolicLink(), isHidden,
+                attrs.isSymbolicLink(), attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    // an archive entry or one the walk no longer sees, never a link to follow
+    DirEntry(Path path, String name, boolean isDir, boolean isFile, boolean isHidden,
+            long size, long lastModified) {
+        this(path, name, isDir, isFile, isHidden, false, size, lastModified);
+    }
+
+    DirEntry(Path path, String name, boolean isDir, boolean isFile, boolean isHidden,
+            boolean isLink, long size, long lastModified) {
+        this.path = path;
+        this.name = name;
+        this.isDir = isDir;
+        this.isFile = isFile;
+        this.isHidden = isHidden;
+        this.isLink = isLink;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getAbsolutePath() {
+        return path.toAbsolutePath().toString();
+    }
+}
@@ -0,0 +1,185 @@
+package com.nomscon.tools.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads a directory in a single pass, fetching the attributes of each entry
+ * with one call. On file systems with DOS attributes the hidden flag comes
+ * from the same call, elsewhere it is derived from the name.
+ */
+final class DirReader implements TreeSource {
+    final static Comparator<DirEntry> BY_NAME = new Comparator<DirEntry>() {
+        private final boolean ignoreCase = (File.separatorChar == '\\');
+
+        @Override
+        public int compare(DirEntry a, DirEntry b) {
+            return ignoreCase
+                    ? a.name.compareToIgnoreCase(b.name)
+                    : a.name.compareTo(b.name);
+        }
+    };
+
+    private final LinkOption[] linkOptions;
+    private TreeStats stats = null;
+
+    // without following, a link is read as itself, as the file walk sees it
+    public DirReader(boolean followLinks) {
+        this.linkOptions = followLinks
+                ? new LinkOption[0]
+                : new LinkOption[] { LinkOption.NOFOLLOW_LINKS };
+    }
+
+    // times each directory and stat from now on, stats may be null
+    public void setStats(TreeStats stats) {
+        this.stats = stats;
+    }
+
+    public List<DirEntry> read(Path dir) throws IOException {
+        final List<DirEntry> entries = new ArrayList<>();
+        read(dir, new EntryHandler() {
+            @Override
+            public void accept(DirEntry entry) {
+                entries.add(entry);
+            }
+        });
+        return entries;
+    }
+
+    // hands each entry over as it is read, without collecting the directory
+    public void read(Path dir, EntryHandler handler) throws IOException {
+        read(dir, handler, 0);
+    }
+
+    // with an entryLimit > 0, only the names are read until the limit is
+    // passed; returns false, having handed nothing over, when it is
+    @Override
+    public boolean read(Path dir, EntryHandler handler, int entryLimit) throws IOException {
+        long start = (stats != null) ? System.nanoTime() : 0;
+        // with stats, the time spent on stat calls and in the handler, not reading the dir
+        long otherNanos = 0;
+        boolean useDos = usesDosAttributes(dir.getFileSystem());
+        List<Path> paths = (entryLimit > 0) ? new ArrayList<Path>() : null;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                if (paths != null) {
+                    if (paths.size() == entryLimit) {
+                        return false;
+                    }
+                    paths.add(path);
+                    continue;
+                }
+                otherNanos += accept(path, useDos, handler);
+            }
+        } catch (DirectoryIteratorException ex) {
+            // a read that failed past the first entries, such as with EIO
+            throw ex.getCause();
+        }
+        if (paths != null) {
+            for (Path path : paths) {
+                otherNanos += accept(path, useDos, handler);
+            }
+        }
+        if (stats != null) {
+            stats.recordDirRead(dir, System.nanoTime() - start - otherNanos);
+        }
+        return true;
+    }
+
+    // counts names without reading attributes, stopping once stopAt is reached
+    public int count(Path dir, int stopAt) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                if (++count >= stopAt) {
+                    break;
+                }
+            }
+        } catch (DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+        return count;
+    }
+
+    @Override
+    public DirEntry readEntry(Path path) {
+        return readEntry(path, usesDosAttributes(path.getFileSystem()));
+    }
+
+    // the start dir, read through a link to it even when links below it are not followed
+    static DirEntry readStartDir(Path path) {
+        return new DirReader(true).readEntry(path);
+    }
+
+    static DirEntry fromAttributes(Path path, BasicFileAttributes attrs) {
+        String name = getName(path);
+        boolean isHidden = (attrs instanceof DosFileAttributes)
+                ? ((DosFileAttributes) attrs).isHidden()
+                : name.startsWith(".");
+        return new DirEntry(path, name, attrs, isHidden);
+    }
+
+    // returns the nanos taken with stats, 0 without
+    private long accept(Path path, boolean useDos, EntryHandler handler) throws IOException {
+        if (stats == null) {
+            DirEntry entry = readEntry(path, useDos);
+            if (entry != null) {
+                handler.accept(entry);
+            }
+            return 0;
+        }
+        long start = System.nanoTime();
+        DirEntry entry = readEntry(path, useDos);
+        stats.getStat().record(System.nanoTime() - start);
+        if (entry != null) {
+            handler.accept(entry);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private DirEntry readEntry(Path path, boolean useDos) {
+        try {
+            BasicFileAttributes attrs = useDos
+                    ? Files.readAttributes(path, DosFileAttributes.class, linkOptions)
+                    : Files.readAttributes(path, BasicFileAttributes.class, linkOptions);
+            return fromAttributes(path, attrs);
+        } catch (IOException ex) {
+            // a broken link is listed as itself, as the file walk lists it
+            if (linkOptions.length == 0) {
+                try {
+                    return fromAttributes(path, Files.readAttributes(path, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS));
+                } catch (IOException linkEx) {
+                    // vanished, neither a file nor a dir
+                }
+            }
+            return null;
+        }
+    }
+
+    private static String getName(Path path) {
+        Path name = path.getFileName();
+        return (name != null) ? name.toString() : path.toString();
+    }
+
+    private static boolean usesDosAttributes(FileSystem fs) {
+        Set<String> views = fs.supportedFileAttributeViews();
+        return views.contains("dos") && !views.contains("posix");
+    }
+
+    interface EntryHandler {
+        void accept(DirEntry entry) throws IOException;
+    }
+}
@@ -0,0 +1,393 @@
+package com.nomscon.tools.tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Lists directories for the sorted tree printer. When more than one thread
+ * is requested, the sub directories of the directory being printed are
+ * scanned ahead of time on a bounded fork-join pool, so siblings are read
+ * concurrently while the printer keeps its depth-first order. Only the next
+ * few dirs the printer will list are scanned ahead, so a wide directory
+ * does not hold the listings of all its sub directories at once.
+ */
+final class DirScanner {
+    private final static DirEntry[] NO_ENTRIES = new DirEntry[0];
+    private final static int SKIPPED = 0;
+    private final static int SUB_DIR = 1;
+    private final static int FILE = 2;
+    // dirs scanned ahead per thread of the pool
+    private final static int PREFETCH_PER_THREAD = 2;
+
+    private final DirReader dirReader;
+    private TreeSource reader;
+    // an archive or other source already in memory, which is not read ahead
+    private boolean isInMemory = false;
+    private final boolean includeFiles;
+    private final boolean includeHidden;
+    private final ForkJoinPool pool;
+
+    // only touched by the printing thread: the dirs to scan ahead in the
+    // order they will be listed, and their scans, null until submitted
+    private final Deque<Path> aheadPaths = new ArrayDeque<>();
+    private final Map<Path, ForkJoinTask<Listing>> pending = new HashMap<>();
+    private final Map<Path, Integer> indexIds = new HashMap<>();
+    private TreeIndex index = null;
+    private int entryLimit = 0;
+    private NameMatcher includePatterns = null;
+    private NameMatcher excludePatterns = null;
+    private EntryOrder order = EntryOrder.BY_NAME;
+    private int firstFileCount = 0;
+    private TreeStats stats = null;
+
+    // a null pool scans inline; the pool may be shared with other scanners.
+    // Without following links, a link to a dir is listed as a file
+    public DirScanner(boolean includeFiles, boolean includeHidden, boolean followLinks,
+            ForkJoinPool pool) {
+        this.dirReader = new DirReader(followLinks);
+        this.reader = dirReader;
+        this.includeFiles = includeFiles;
+        this.includeHidden = includeHidden;
+        this.pool = pool;
+    }
+
+    // the start dir, which is read through a link
+    public DirEntry readEntry(Path path) {
+        return isInMemory ? reader.readEntry(path) : DirReader.readStartDir(path);
+    }
+
+    // lists from the snapshot instead of the file system, starting at root
+    public void useIndex(TreeIndex index, Path root) {
+        this.index = index;
+        indexIds.clear();
+        indexIds.put(root, 0);
+    }
+
+    public boolean isIndexed() { return index != null; }
+
+    // lists from source instead of the file system, such as an archive
+    public void setSource(TreeSource source) {
+        this.reader = source;
+        this.isInMemory = true;
+    }
+
+    // reads on readPool, giving up on a dir after timeoutMillis, and tries
+    // reads that failed with EIO or ESTALE again; either may be 0
+    public void setGuard(ExecutorService readPool, int timeoutMillis, int retryCount) {
+        if (timeoutMillis > 0 || retryCount > 0) {
+            this.reader = new GuardedReader(reader, readPool, timeoutMillis, retryCount);
+        }
+    }
+
+    // sub directories with more entries are reported as such instead of listed
+    public void setEntryLimit(int entryLimit) {
+        this.entryLimit = entryLimit;
+    }
+
+    // files must match include; files and dirs must not match exclude
+    public void setPatterns(NameMatcher include, NameMatcher exclude) {
+        this.includePatterns = include;
+        this.excludePatterns = exclude;
+    }
+
+    // with a firstFileCount > 0, only that many files of each dir are listed
+    public void setOrder(EntryOrder order, int firstFileCount) {
+        this.order = order;
+        this.firstFileCount = firstFileCount;
+    }
+
+    // times reading, filtering and sorting from now on, stats may be null
+    public void setStats(TreeStats stats) {
+        this.stats = stats;
+        dirReader.setStats(stats);
+    }
+
+    // the entry limit does not apply to the start dir
+    public Listing list(Path dir, boolean isStartDir) {
+        int limit = isStartDir ? 0 : entryLimit;
+        if (index != null) {
+            Integer id = indexIds.remove(dir);
+            if (id != null) {
+                return listIndexed(id, dir, limit);
+            }
+        }
+        ForkJoinTask<Listing> task = takeAhead(dir);
+        return (task != null) ? task.join() : scan(dir, limit);
+    }
+
+    // dirs are listed depth first, so these come before what was already ahead
+    public void prefetch(DirEntry[] dirs) {
+        // other sources are already in memory
+        if (pool == null || index != null || isInMemory) {
+            return;
+        }
+        for (int i = dirs.length - 1; i >= 0; i--) {
+            Path path = dirs[i].path;
+            if (!pending.containsKey(path)) {
+                pending.put(path, null);
+                aheadPaths.addFirst(path);
+            }
+        }
+        submitAhead();
+    }
+
+    // reads the directory once into bounded, spilling buffers; the caller closes it
+    public StreamedListing stream(Path dir, boolean isStartDir, int memoryLimit) throws IOException {
+        final StreamedListing listing = new StreamedListing(
+                new EntryBuffer(order, memoryLimit),
+                new EntryBuffer(order, memoryLimit));
+        try {
+            listing.exceedsLimit = !reader.read(dir, new DirReader.EntryHandler() {
+                @Override
+                public void accept(DirEntry entry) throws IOException {
+                    int kind = classify(entry);
+                    if (kind == SUB_DIR) {
+                        listing.subDirs.add(entry);
+                    } else if (kind == FILE) {
+                        listing.files.add(entry);
+                    }
+                }
+            }, isStartDir ? 0 : entryLimit);
+        } catch (IOException ex) {
+            listing.close();
+            throw ex;
+        }
+        return listing;
+    }
+
+    // cancels the scans that were started ahead and not listed
+    public void shutdown() {
+        for (ForkJoinTask<Listing> task : pending.values()) {
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+        pending.clear();
+        aheadPaths.clear();
+        indexIds.clear();
+    }
+
+    // the scan of dir, null when it was not started; the dirs ahead of it
+    // were passed over by the printer, so their scans are dropped
+    private ForkJoinTask<Listing> takeAhead(Path dir) {
+        if (!pending.containsKey(dir)) {
+            return null;
+        }
+        while (true) {
+            Path path = aheadPaths.removeFirst();
+            ForkJoinTask<Listing> task = pending.remove(path);
+            if (path.equals(dir)) {
+                submitAhead();
+                return task;
+            }
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    // keeps the next dirs to be listed scanning
+    private void submitAhead() {
+        int window = pool.getParallelism() * PREFETCH_PER_THREAD;
+        int count = 0;
+        for (Path path : aheadPaths) {
+            if (count++ == window) {
+                break;
+            }
+            if (pending.get(path) == null) {
+                pending.put(path, pool.submit(new ScanTask(path)));
+            }
+        }
+    }
+
+    private Listing scan(Path dir, int limit) {
+        final List<DirEntry> files = new ArrayList<>();
+        final List<DirEntry> subDirs = new ArrayList<>();
+        try {
+            boolean isComplete = reader.read(dir, new DirReader.EntryHandler() {
+                @Override
+                public void accept(DirEntry entry) {
+                    int kind = classify(entry);
+                    if (kind == SUB_DIR) {
+                        subDirs.add(entry);
+                    } else if (kind == FILE) {
+                        files.add(entry);
+                    }
+                }
+            }, limit);
+            if (!isComplete) {
+                return Listing.EXCEEDS_LIMIT;
+            }
+        } catch (IOException ex) {
+            return Listing.failed(ex);
+        }
+        long start = (stats != null) ? System.nanoTime() : 0;
+        DirEntry[] listedFiles = sortedFiles(files);
+        Listing listing = new Listing(listedFiles, sorted(subDirs), unlistedSize(files, listedFiles));
+        if (stats != null) {
+            stats.getSort().record(System.nanoTime() - start);
+        }
+        return listing;
+    }
+
+    private Listing listIndexed(int id, Path dir, int limit) {
+        if (limit > 0 && index.getChildCount(id) > limit) {
+            return Listing.EXCEEDS_LIMIT;
+        }
+        List<DirEntry> files = new ArrayList<>();
+        List<DirEntry> subDirs = new ArrayList<>();
+        int first = index.getFirstChild(id);
+        int end = first + index.getChildCount(id);
+        for (int i = first; i < end; i++) {
+            DirEntry entry = index.toEntry(i, dir);
+            int kind = classify(entry);
+            if (kind == SUB_DIR) {
+                subDirs.add(entry);
+                indexIds.put(entry.path, i);
+            } else if (kind == FILE) {
+                files.add(entry);
+            }
+        }
+        if (order == EntryOrder.BY_NAME && firstFileCount == 0) {
+            // the snapshot is already sorted
+            return new Listing(
+                    files.toArray(new DirEntry[files.size()]),
+                    subDirs.toArray(new DirEntry[subDirs.size()]));
+        }
+        DirEntry[] listedFiles = sortedFiles(files);
+        return new Listing(listedFiles, sorted(subDirs), unlistedSize(files, listedFiles));
+    }
+
+    private int classify(DirEntry entry) {
+        if (stats == null) {
+            return isSubDir(entry) ? SUB_DIR : isFile(entry) ? FILE : SKIPPED;
+        }
+        long start = System.nanoTime();
+        int kind = isSubDir(entry) ? SUB_DIR : isFile(entry) ? FILE : SKIPPED;
+        stats.getFilter().record(System.nanoTime() - start);
+        return kind;
+    }
+
+    private boolean isSubDir(DirEntry entry) {
+        return entry.isDir && (includeHidden || !entry.isHidden)
+                && (excludePatterns == null || !excludePatterns.matches(entry.name));
+    }
+
+    private boolean isFile(DirEntry entry) {
+        return includeFiles && entry.isFile && (includeHidden || !entry.isHidden)
+                && (includePatterns == null || includePatterns.matches(entry.name))
+                && (excludePatterns == null || !excludePatterns.matches(entry.name));
+    }
+
+    private DirEntry[] sorted(List<DirEntry> entries) {
+        if (entries.isEmpty()) {
+            return NO_ENTRIES;
+        }
+        DirEntry[] sorted = entries.toArray(new DirEntry[entries.size()]);
+        order.sort(sorted);
+        return sorted;
+    }
+
+    // only the first files when they are limited, without sorting the rest
+    private DirEntry[] sortedFiles(List<DirEntry> files) {
+        if (firstFileCount == 0 || files.size() <= firstFileCount) {
+            return sorted(files);
+        }
+        return order.sortFirst(files.toArray(new DirEntry[files.size()]), firstFileCount);
+    }
+
+    // the bytes of the files left out by the first file count, which --du still counts
+    private static long unlistedSize(List<DirEntry> files, DirEntry[] listedFiles) {
+        if (listedFiles.length == files.size()) {
+            return 0;
+        }
+        long size = 0;
+        for (DirEntry file : files) {
+            size += file.size;
+        }
+        for (DirEntry file : listedFiles) {
+            size -= file.size;
+        }
+        return size;
+    }
+
+    static final class Listing {
+        final static Listing EMPTY = new Listing(NO_ENTRIES, NO_ENTRIES, false, 0, null);
+        final static Listing EXCEEDS_LIMIT = new Listing(NO_ENTRIES, NO_ENTRIES, true, 0, null);
+
+        final DirEntry[] files;
+        final DirEntry[] subDirs;
+        final boolean exceedsLimit;
+        // the bytes of the files left out by the first file count
+        final long otherFilesSize;
+        // why the dir could not be read, null when it was
+        final IOException error;
+
+        Listing(DirEntry[] files, DirEntry[] subDirs) {
+            this(files, subDirs, 0);
+        }
+
+        Listing(DirEntry[] files, DirEntry[] subDirs, long otherFilesSize) {
+            this(files, subDirs, false, otherFilesSize, null);
+        }
+
+        private Listing(DirEntry[] files, DirEntry[] subDirs, boolean exceedsLimit,
+                long otherFilesSize, IOException error) {
+            this.files = files;
+            this.subDirs = subDirs;
+            this.exceedsLimit = exceedsLimit;
+            this.otherFilesSize = otherFilesSize;
+            this.error = error;
+        }
+
+        static Listing failed(IOException error) {
+            return new Listing(NO_ENTRIES, NO_ENTRIES, false, 0, error);
+        }
+    }
+
+    static final class StreamedListing implements Closeable {
+        final EntryBuffer files;
+        final EntryBuffer subDirs;
+        boolean exceedsLimit = false;
+
+        StreamedListing(EntryBuffer files, EntryBuffer subDirs) {
+            this.files = files;
+            this.subDirs = subDirs;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                files.close();
+            } finally {
+                subDirs.close();
+            }
+        }
+    }
+
+    // never serialized, it holds the scanner
+    @SuppressWarnings("serial")
+    private final class ScanTask extends RecursiveTask<Listing> {
+        private final Path dir;
+
+        ScanTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected Listing compute() {
+            return scan(dir, entryLimit);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.nomscon.tools.tree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the entries of one directory while holding at most memoryLimit
+ * of them on the heap. Beyond that, runs are spilled to temp files (sorted
+ * when an order is given) and merged back when the entries are replayed.
+ * At most MAX_MERGE_WIDTH runs are merged at once, in passes through
+ * intermediate runs when there are more, and unsorted runs are replayed one
+ * file at a time, so the open files stay bounded however many runs spilled.
+ */
+final class EntryBuffer implements Closeable {
+    private final static byte IS_DIR = 1;
+    private final static byte IS_FILE = 2;
+    private final static byte IS_HIDDEN = 4;
+    private final static byte IS_LINK = 8;
+    private final static int MAX_MERGE_WIDTH = 64;
+
+    private final EntryOrder order;
+    private final int memoryLimit;
+    private final List<DirEntry> entries = new ArrayList<>();
+    private final List<Path> spillFiles = new ArrayList<>();
+    private final List<Run> openRuns = new ArrayList<>();
+    private int size = 0;
+
+    // a null order replays the entries in the order they were added
+    public EntryBuffer(EntryOrder order, int memoryLimit) {
+        this.order = order;
+        this.memoryLimit = Math.max(1, memoryLimit);
+    }
+
+    public void add(DirEntry entry) throws IOException {
+        entries.add(entry);
+        size++;
+        if (entries.size() >= memoryLimit) {
+            spill();
+        }
+    }
+
+    public int size() { return size; }
+
+    // returns null once every entry has been replayed
+    public Cursor cursor() throws IOException {
+        if (order == null) {
+            return new ConcatCursor();
+        }
+        order.sort(entries);
+        // the held entries are one more run
+        while (spillFiles.size() >= MAX_MERGE_WIDTH) {
+            mergeSpillFiles(MAX_MERGE_WIDTH);
+        }
+        List<Run> runs = new ArrayList<>();
+        for (Path spillFile : spillFiles) {
+            runs.add(open(new FileRun(spillFile)));
+        }
+        runs.add(open(new MemoryRun(entries.iterator())));
+        return new MergeCursor(runs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Run run : openRuns) {
+            run.close();
+        }
+        openRuns.clear();
+        for (Path spillFile : spillFiles) {
+            Files.deleteIfExists(spillFile);
+        }
+        spillFiles.clear();
+        entries.clear();
+    }
+
+    private Run open(Run run) throws IOException {
+        openRuns.add(run);
+        run.advance();
+        return run;
+    }
+
+    private void close(Run run) throws IOException {
+        openRuns.remove(run);
+        run.close();
+    }
+
+    private void spill() throws IOException {
+        if (order != null) {
+            order.sort(entries);
+        }
+        try (DataOutputStream out = createSpillFile()) {
+            for (DirEntry entry : entries) {
+                write(out, entry);
+            }
+        }
+        entries.clear();
+    }
+
+    // merges the first count spill files into one, which is added last
+    private void mergeSpillFiles(int count) throws IOException {
+        List<Path> merged = new ArrayList<>(spillFiles.subList(0, count));
+        List<Run> runs = new ArrayList<>(count);
+        try (DataOutputStream out = createSpillFile()) {
+            for (Path spillFile : merged) {
+                runs.add(open(new FileRun(spillFile)));
+            }
+            Cursor cursor = new MergeCursor(runs);
+            for (DirEntry entry = cursor.next(); entry != null; entry = cursor.next()) {
+                write(out, entry);
+            }
+        } finally {
+            for (Run run : runs) {
+                close(run);
+            }
+        }
+        spillFiles.subList(0, count).clear();
+        for (Path spillFile : merged) {
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    // listed for deletion before anything is written to it
+    private DataOutputStream createSpillFile() throws IOException {
+        Path spillFile = Files.createTempFile("tree-", ".spill");
+        spillFiles.add(spillFile);
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+    }
+
+    private static void write(DataOutputStream out, DirEntry entry) throws IOException {
+        // the URI keeps names that do not decode in the platform charset
+        out.writeUTF(entry.path.toUri().toString());
+        out.writeUTF(entry.name);
+        out.writeByte((entry.isDir ? IS_DIR : 0)
+                | (entry.isFile ? IS_FILE : 0)
+                | (entry.isHidden ? IS_HIDDEN : 0)
+                | (entry.isLink ? IS_LINK : 0));
+        out.writeLong(entry.size);
+        out.writeLong(entry.lastModified);
+    }
+
+    interface Cursor {
+        DirEntry next() throws IOException;
+    }
+
+    private abstract static class Run implements Closeable {
+        DirEntry head;
+
+        abstract void advance() throws IOException;
+
+        @Override
+        public void close() throws IOException { }
+    }
+
+    private static final class MemoryRun extends Run {
+        private final Iterator<DirEntry> it;
+
+        MemoryRun(Iterator<DirEntry> it) {
+            this.it = it;
+        }
+
+        @Override
+        void advance() {
+            head = it.hasNext() ? it.next() : null;
+        }
+    }
+
+    private static final class FileRun extends Run {
+        private final DataInputStream in;
+
+        FileRun(Path spillFile) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)));
+        }
+
+        @Override
+        void advance() throws IOException {
+            String uri;
+            try {
+                uri = in.readUTF();
+            } catch (EOFException ex) {
+                head = null;
+                return;
+            }
+            String name = in.readUTF();
+            byte flags = in.readByte();
+            long entrySize = in.readLong();
+            long lastModified = in.readLong();
+            head = new DirEntry(Paths.get(URI.create(uri)), name,
+                    (flags & IS_DIR) != 0,
+                    (flags & IS_FILE) != 0,
+                    (flags & IS_HIDDEN) != 0,
+                    (flags & IS_LINK) != 0,
+                    entrySize, lastModified);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // the spill files in the order they were written, then the held entries
+    private final class ConcatCursor implements Cursor {
+        private Run run;
+        private int nextRun = 1;
+
+        ConcatCursor() throws IOException {
+            run = openRun(0);
+        }
+
+        @Override
+        public DirEntry next() throws IOException {
+            while (run.head == null) {
+                if (nextRun > spillFiles.size()) {
+                    return null;
+                }
+                close(run);
+                run = openRun(nextRun++);
+            }
+            DirEntry entry = run.head;
+            run.advance();
+            return entry;
+        }
+
+        private Run openRun(int i) throws IOException {
+            return open((i < spillFiles.size())
+                    ? new FileRun(spillFiles.get(i))
+                    : new MemoryRun(entries.iterator()));
+        }
+    }
+
+    private final class MergeCursor implements Cursor {
+        private final PriorityQueue<Run> heads;
+
+        MergeCursor(List<Run> runs) {
+            heads = new PriorityQueue<>(runs.size(), new Comparator<Run>() {
+                @Override
+                public int compare(Run a, Run b) {
+                    return order.compare(a.head, b.head);
+                }
+            });
+            for (Run run : runs) {
+                if (run.head != null) {
+                    heads.add(run);
+                }
+            }
+        }
+
+        @Override
+        public DirEntry next() throws IOException {
+            Run run = heads.poll();
+            if (run == null) {
+                return null;
+            }
+            DirEntry entry = run.head;
+            run.advance();
+            if (run.head != null) {
+                heads.add(run);
+            }
+            return entry;
+        }
+    }
+}
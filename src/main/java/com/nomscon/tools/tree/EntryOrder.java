@@ -0,0 +1,343 @@
+package com.nomscon.tools.tree;
+
+import java.io.File;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The order the entries of a directory are listed in. Sorting derives one
+ * key per entry up front (a long for times and sizes, a string for names
+ * and versions, a CollationKey for the locale) and sorts an index array
+ * over the keys, so no comparison touches a path or re-derives a string.
+ * Ties are broken by name. Comparing single entries, as merging spilled
+ * runs does, derives the keys on the fly.
+ */
+final class EntryOrder implements Comparator<DirEntry> {
+    final static String NAME = "name";
+    final static String MTIME = "mtime";
+    final static String SIZE = "size";
+    final static String VERSION = "version";
+    final static String LOCALE = "locale";
+
+    final static EntryOrder BY_NAME = new EntryOrder(NAME);
+
+    // runs this short are sorted by insertion
+    private final static int INSERTION_SORT_LENGTH = 16;
+    private final static boolean IGNORE_CASE = (File.separatorChar == '\\');
+
+    private final String name;
+    // not thread safe, so each sort works with a clone
+    private final Collator collator;
+
+    private EntryOrder(String name) {
+        this.name = name;
+        this.collator = LOCALE.equals(name) ? Collator.getInstance() : null;
+    }
+
+    static boolean isSupported(String name) {
+        return NAME.equals(name) || MTIME.equals(name) || SIZE.equals(name)
+                || VERSION.equals(name) || LOCALE.equals(name);
+    }
+
+    // null or name sorts by name
+    static EntryOrder create(String name) {
+        if (name == null || NAME.equals(name)) {
+            return BY_NAME;
+        }
+        if (!isSupported(name)) {
+            throw new IllegalArgumentException("unknown sort order: " + name);
+        }
+        return new EntryOrder(name);
+    }
+
+    String getName() { return name; }
+
+    @Override
+    public int compare(DirEntry a, DirEntry b) {
+        int result;
+        switch (name) {
+            case MTIME:
+                // newest first
+                result = Long.compare(b.lastModified, a.lastModified);
+                break;
+            case SIZE:
+                // largest first
+                result = Long.compare(b.size, a.size);
+                break;
+            case VERSION:
+                result = versionKey(a.name).compareTo(versionKey(b.name));
+                break;
+            case LOCALE:
+                synchronized (collator) {
+                    result = collator.compare(a.name, b.name);
+                }
+                break;
+            default:
+                result = 0;
+        }
+        return (result != 0) ? result : DirReader.BY_NAME.compare(a, b);
+    }
+
+    void sort(DirEntry[] entries) {
+        if (entries.length > 1) {
+            int[] indexes = sortedIndexes(entries, entries.length);
+            permute(entries, indexes);
+        }
+    }
+
+    void sort(List<DirEntry> entries) {
+        if (entries.size() > 1) {
+            DirEntry[] sorted = entries.toArray(new DirEntry[entries.size()]);
+            sort(sorted);
+            for (int i = 0; i < sorted.length; i++) {
+                entries.set(i, sorted[i]);
+            }
+        }
+    }
+
+    // the first count entries in order, found with a bounded heap instead of
+    // sorting them all
+    DirEntry[] sortFirst(DirEntry[] entries, int count) {
+        if (count >= entries.length) {
+            sort(entries);
+            return entries;
+        }
+        DirEntry[] first = new DirEntry[count];
+        if (count > 0) {
+            int[] indexes = sortedIndexes(entries, count);
+            for (int i = 0; i < count; i++) {
+                first[i] = entries[indexes[i]];
+            }
+        }
+        return first;
+    }
+
+    private int[] sortedIndexes(DirEntry[] entries, int count) {
+        Keys keys = createKeys(entries);
+        int n = entries.length;
+        if (count < n) {
+            // a max heap of the count smallest seen so far
+            int[] heap = new int[count];
+            for (int i = 0; i < count; i++) {
+                heap[i] = i;
+                siftUp(heap, i, keys);
+            }
+            for (int i = count; i < n; i++) {
+                if (keys.compare(i, heap[0]) < 0) {
+                    heap[0] = i;
+                    siftDown(heap, count, keys);
+                }
+            }
+            mergeSort(heap, new int[count], 0, count, keys);
+            return heap;
+        }
+        int[] indexes = new int[n];
+        for (int i = 0; i < n; i++) {
+            indexes[i] = i;
+        }
+        mergeSort(indexes, new int[n], 0, n, keys);
+        return indexes;
+    }
+
+    private Keys createKeys(DirEntry[] entries) {
+        int n = entries.length;
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = entries[i].name;
+        }
+        switch (name) {
+            case MTIME:
+            case SIZE:
+                long[] longKeys = new long[n];
+                for (int i = 0; i < n; i++) {
+                    // negated for newest and largest first
+                    longKeys[i] = MTIME.equals(name) ? -entries[i].lastModified : -entries[i].size;
+                }
+                return new LongKeys(longKeys, names);
+            case VERSION:
+                String[] versionKeys = new String[n];
+                for (int i = 0; i < n; i++) {
+                    versionKeys[i] = versionKey(names[i]);
+                }
+                return new StringKeys(versionKeys, names);
+            case LOCALE:
+                Collator localCollator = (Collator) collator.clone();
+                CollationKey[] collationKeys = new CollationKey[n];
+                for (int i = 0; i < n; i++) {
+                    collationKeys[i] = localCollator.getCollationKey(names[i]);
+                }
+                return new CollationKeys(collationKeys, names);
+            default:
+                return new StringKeys(null, names);
+        }
+    }
+
+    // puts entries[indexes[i]] at i
+    private static void permute(DirEntry[] entries, int[] indexes) {
+        DirEntry[] copy = entries.clone();
+        for (int i = 0; i < indexes.length; i++) {
+            entries[i] = copy[indexes[i]];
+        }
+    }
+
+    // keys never tie, so stability does not matter
+    private static void mergeSort(int[] a, int[] tmp, int from, int to, Keys keys) {
+        if (to - from <= INSERTION_SORT_LENGTH) {
+            for (int i = from + 1; i < to; i++) {
+                int value = a[i];
+                int j = i - 1;
+                while (j >= from && keys.compare(a[j], value) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = value;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, from, mid, keys);
+        mergeSort(a, tmp, mid, to, keys);
+        if (keys.compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && keys.compare(tmp[i], tmp[j]) <= 0)) {
+                a[k] = tmp[i++];
+            } else {
+                a[k] = tmp[j++];
+            }
+        }
+    }
+
+    private static void siftUp(int[] heap, int i, Keys keys) {
+        int value = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys.compare(heap[parent], value) >= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = value;
+    }
+
+    private static void siftDown(int[] heap, int size, Keys keys) {
+        int value = heap[0];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys.compare(heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (keys.compare(value, heap[child]) >= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+
+    // numbers compare by value: each run of digits becomes '0', its length
+    // without leading zeros as a char, then the digits, so "a9" < "a10"
+    // and digits still sort before letters
+    static String versionKey(String name) {
+        int length = name.length();
+        StringBuilder key = null;
+        int i = 0;
+        while (i < length) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                if (key != null) {
+                    key.append(c);
+                }
+                i++;
+                continue;
+            }
+            if (key == null) {
+                key = new StringBuilder(length + 8).append(name, 0, i);
+            }
+            int start = i;
+            while (i < length && name.charAt(i) >= '0' && name.charAt(i) <= '9') {
+                i++;
+            }
+            int firstDigit = start;
+            while (firstDigit < i - 1 && name.charAt(firstDigit) == '0') {
+                firstDigit++;
+            }
+            key.append('0').append((char) (i - firstDigit)).append(name, firstDigit, i);
+        }
+        return (key != null) ? key.toString() : name;
+    }
+
+    // the keys of one directory by entry index, with the name as tie breaker
+    private abstract static class Keys {
+        private final String[] names;
+
+        Keys(String[] names) {
+            this.names = names;
+        }
+
+        abstract int compareKeys(int i, int j);
+
+        final int compare(int i, int j) {
+            int result = compareKeys(i, j);
+            if (result != 0) {
+                return result;
+            }
+            return IGNORE_CASE
+                    ? names[i].compareToIgnoreCase(names[j])
+                    : names[i].compareTo(names[j]);
+        }
+    }
+
+    private static final class LongKeys extends Keys {
+        private final long[] keys;
+
+        LongKeys(long[] keys, String[] names) {
+            super(names);
+            this.keys = keys;
+        }
+
+        @Override
+        int compareKeys(int i, int j) {
+            return Long.compare(keys[i], keys[j]);
+        }
+    }
+
+    // a null key array compares by name only
+    private static final class StringKeys extends Keys {
+        private final String[] keys;
+
+        StringKeys(String[] keys, String[] names) {
+            super(names);
+            this.keys = keys;
+        }
+
+        @Override
+        int compareKeys(int i, int j) {
+            return (keys != null) ? keys[i].compareTo(keys[j]) : 0;
+        }
+    }
+
+    private static final class CollationKeys extends Keys {
+        private final CollationKey[] keys;
+
+        CollationKeys(CollationKey[] keys, String[] names) {
+            super(names);
+            this.keys = keys;
+        }
+
+        @Override
+        int compareKeys(int i, int j) {
+            return keys[i].compareTo(keys[j]);
+        }
+    }
+}
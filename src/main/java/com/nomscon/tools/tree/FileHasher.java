@@ -0,0 +1,92 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Hashes file contents on a shared pool of worker threads. Small files are read
+ * through a direct buffer owned by each worker; large ones are mapped in
+ * windows, so their pages go from the page cache into the hash uncopied.
+ */
+final class FileHasher {
+    private final static long MAP_THRESHOLD = 4L * 1024 * 1024;
+    private final static long MAP_WINDOW = 64L * 1024 * 1024;
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final ExecutorService pool;
+    private final DigestCache cache;
+    private final ThreadLocal<ContentHash> hashes;
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    // cache is null when digests are not kept between runs
+    FileHasher(final String hashName, ExecutorService pool, DigestCache cache) {
+        this.pool = pool;
+        this.cache = cache;
+        this.hashes = new ThreadLocal<ContentHash>() {
+            @Override
+            protected ContentHash initialValue() {
+                return ContentHash.create(hashName);
+            }
+        };
+    }
+
+    // only regular files are hashed, a link is listed without a digest
+    public boolean isHashed(DirEntry entry) {
+        return entry.isFile && !entry.isLink;
+    }
+
+    // the digest from an earlier run, null when there is none or it is stale
+    public String cached(DirEntry file) {
+        return (cache != null) ? cache.get(file) : null;
+    }
+
+    // the digest is null when the file could not be read
+    public Future<String> submit(final DirEntry file) {
+        return pool.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                String digest = hash(file);
+                if (digest != null && cache != null) {
+                    cache.put(file, digest);
+                }
+                return digest;
+            }
+        });
+    }
+
+    private String hash(DirEntry file) {
+        ContentHash hash = hashes.get();
+        try (FileChannel channel = FileChannel.open(file.path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MAP_WINDOW) {
+                    hash.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_WINDOW, size - position)));
+                }
+            } else {
+                ByteBuffer buffer = buffers.get();
+                buffer.clear();
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    hash.update(buffer);
+                    buffer.clear();
+                }
+            }
+        } catch (IOException ex) {
+            // start the next file from a clean state
+            hash.finish();
+            return null;
+        }
+        return hash.finish();
+    }
+}
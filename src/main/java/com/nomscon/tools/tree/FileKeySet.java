@@ -0,0 +1,101 @@
+package com.nomscon.tools.tree;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The dirs a walk has listed, by the file key of their attributes. Unix
+ * keys (device and inode) are kept as pairs of longs in one open addressing
+ * table, 16 bytes a dir; keys of other file systems fall back to a plain
+ * set of the key objects.
+ */
+final class FileKeySet {
+    final static long UNKNOWN_DEVICE = -1;
+
+    private final static int INITIAL_CAPACITY = 1024;
+    // an inode of 0 is never in use, so it marks a free slot
+    private final static long FREE = 0;
+
+    private long[] devices = new long[INITIAL_CAPACITY];
+    private long[] inodes = new long[INITIAL_CAPACITY];
+    private int size = 0;
+    private final Set<Object> otherKeys = new HashSet<>();
+
+    // false when the key was added before
+    public boolean add(Object fileKey) {
+        long[] key = parseUnixKey(fileKey);
+        if (key == null || key[1] == FREE) {
+            return otherKeys.add(fileKey);
+        }
+        if ((size + 1) * 2 > inodes.length) {
+            grow();
+        }
+        return insert(key[0], key[1]);
+    }
+
+    public int size() {
+        return size + otherKeys.size();
+    }
+
+    // the device of a unix file key, UNKNOWN_DEVICE for other keys
+    static long deviceOf(Object fileKey) {
+        long[] key = parseUnixKey(fileKey);
+        return (key != null) ? key[0] : UNKNOWN_DEVICE;
+    }
+
+    private boolean insert(long device, long inode) {
+        int mask = inodes.length - 1;
+        int slot = hash(device, inode) & mask;
+        while (inodes[slot] != FREE) {
+            if (inodes[slot] == inode && devices[slot] == device) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        devices[slot] = device;
+        inodes[slot] = inode;
+        size++;
+        return true;
+    }
+
+    private void grow() {
+        long[] oldDevices = devices;
+        long[] oldInodes = inodes;
+        devices = new long[oldInodes.length * 2];
+        inodes = new long[oldInodes.length * 2];
+        size = 0;
+        for (int i = 0; i < oldInodes.length; i++) {
+            if (oldInodes[i] != FREE) {
+                insert(oldDevices[i], oldInodes[i]);
+            }
+        }
+    }
+
+    private static int hash(long device, long inode) {
+        long h = inode * 0x9E3779B97F4A7C15L + device;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // the JDK writes unix keys as "(dev=<hex>,ino=<decimal>)"; null for anything else
+    private static long[] parseUnixKey(Object fileKey) {
+        if (fileKey == null) {
+            return null;
+        }
+        String text = fileKey.toString();
+        if (!text.startsWith("(dev=") || !text.endsWith(")")) {
+            return null;
+        }
+        int comma = text.indexOf(",ino=");
+        if (comma < 0) {
+            return null;
+        }
+        try {
+            return new long[] {
+                Long.parseUnsignedLong(text.substring(5, comma), 16),
+                Long.parseUnsignedLong(text.substring(comma + 5, text.length() - 1))
+            };
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
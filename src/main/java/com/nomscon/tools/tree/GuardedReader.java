@@ -0,0 +1,149 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads directories through another source for mounts that may hang or
+ * fail for a moment. With a timeout, each read, stat calls included, runs
+ * on a thread of the read pool while the caller waits; a read that takes
+ * too long is abandoned to that thread and fails with a
+ * {@link ReadTimeoutException}, and it hands nothing more over once it is.
+ * A read that fails with EIO or ESTALE before handing anything over is
+ * tried again after a backoff that doubles each time, up to the retry count.
+ */
+final class GuardedReader implements TreeSource {
+    private final static long FIRST_BACKOFF_MILLIS = 100;
+    private final static long MAX_BACKOFF_MILLIS = 3200;
+
+    private final TreeSource source;
+    // null when reads are not timed
+    private final ExecutorService pool;
+    private final int timeoutMillis;
+    private final int retryCount;
+
+    public GuardedReader(TreeSource source, ExecutorService pool, int timeoutMillis, int retryCount) {
+        this.source = source;
+        this.pool = (timeoutMillis > 0) ? pool : null;
+        this.timeoutMillis = timeoutMillis;
+        this.retryCount = retryCount;
+    }
+
+    // the start dir was already checked on the calling thread
+    @Override
+    public DirEntry readEntry(Path path) {
+        return source.readEntry(path);
+    }
+
+    @Override
+    public boolean read(Path dir, DirReader.EntryHandler handler, int entryLimit)
+            throws IOException {
+        long backoff = FIRST_BACKOFF_MILLIS;
+        for (int attempt = 0; ; attempt++) {
+            Guard guard = new Guard(handler);
+            try {
+                return (pool != null)
+                        ? readTimed(dir, guard, entryLimit)
+                        : source.read(dir, guard, entryLimit);
+            } catch (IOException ex) {
+                // entries already handed over would be listed twice
+                if (attempt == retryCount || guard.getCount() > 0 || !isTransient(ex)) {
+                    throw ex;
+                }
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted reading " + dir);
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private boolean readTimed(final Path dir, final Guard guard, final int entryLimit)
+            throws IOException {
+        Future<Boolean> read = pool.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return source.read(dir, guard, entryLimit);
+            }
+        });
+        try {
+            return read.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            guard.abandon();
+            read.cancel(true);
+            throw new ReadTimeoutException(dir, timeoutMillis);
+        } catch (InterruptedException ex) {
+            guard.abandon();
+            read.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted reading " + dir);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // the JDK only tells EIO, ESTALE and the like apart by their message
+    private static boolean isTransient(IOException ex) {
+        if (!(ex instanceof FileSystemException) || ex instanceof NoSuchFileException
+                || ex instanceof AccessDeniedException || ex instanceof NotDirectoryException
+                || ex instanceof ReadTimeoutException) {
+            return false;
+        }
+        String reason = ((FileSystemException) ex).getReason();
+        return reason != null && (reason.contains("Input/output error")
+                || reason.contains("Stale") || reason.contains("Resource temporarily unavailable")
+                || reason.contains("Interrupted system call"));
+    }
+
+    // counts what is handed over, and stops handing over once the read is abandoned
+    private static final class Guard implements DirReader.EntryHandler {
+        private final DirReader.EntryHandler target;
+        private int count = 0;
+        private boolean isAbandoned = false;
+
+        Guard(DirReader.EntryHandler target) {
+            this.target = target;
+        }
+
+        @Override
+        public synchronized void accept(DirEntry entry) throws IOException {
+            if (isAbandoned) {
+                throw new InterruptedIOException("read abandoned");
+            }
+            count++;
+            target.accept(entry);
+        }
+
+        synchronized int getCount() {
+            return count;
+        }
+
+        synchronized void abandon() {
+            isAbandoned = true;
+        }
+    }
+}
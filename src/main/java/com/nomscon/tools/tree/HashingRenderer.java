@@ -0,0 +1,179 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Adds content hashes to the file events of another renderer. Files are
+ * handed to the hasher as they arrive and every event then waits in a
+ * reorder queue until the digests before it are known, so the listing keeps
+ * its order while the walk runs up to MAX_PENDING events ahead of it.
+ */
+final class HashingRenderer implements TreeRenderer {
+    private final static int MAX_PENDING = 256;
+
+    private final TreeRenderer target;
+    private final FileHasher hasher;
+    private final ArrayDeque<Event> pending = new ArrayDeque<>();
+
+    HashingRenderer(TreeRenderer target, FileHasher hasher) {
+        this.target = target;
+        this.hasher = hasher;
+    }
+
+    @Override
+    public void startTree() {
+        target.startTree();
+    }
+
+    @Override
+    public void enterDir(final DirEntry dir, final int level, final boolean isLast,
+            final boolean exceedsLimit, final String change) {
+        if (pending.isEmpty()) {
+            target.enterDir(dir, level, isLast, exceedsLimit, change);
+            return;
+        }
+        add(new Event(null) {
+            @Override
+            void render(String digest) {
+                target.enterDir(dir, level, isLast, exceedsLimit, change);
+            }
+        });
+    }
+
+    @Override
+    public void file(final DirEntry file, final int level, final boolean isLast,
+            final String change, String digest) {
+        final String cached = hasher.isHashed(file) ? hasher.cached(file) : null;
+        Future<String> hashed = null;
+        if (cached == null && hasher.isHashed(file)) {
+            hashed = hasher.submit(file);
+        } else if (pending.isEmpty()) {
+            target.file(file, level, isLast, change, cached);
+            return;
+        }
+        add(new Event(hashed) {
+            @Override
+            void render(String digest) {
+                target.file(file, level, isLast, change, (cached != null) ? cached : digest);
+            }
+        });
+    }
+
+    @Override
+    public void failed(final Path path, final int level, final boolean isLast,
+            final IOException ex) {
+        if (pending.isEmpty()) {
+            target.failed(path, level, isLast, ex);
+            return;
+        }
+        add(new Event(null) {
+            @Override
+            void render(String digest) {
+                target.failed(path, level, isLast, ex);
+            }
+        });
+    }
+
+    @Override
+    public void repeatedDir(final DirEntry dir, final int level, final boolean isLast,
+            final Path linkTarget) {
+        if (pending.isEmpty()) {
+            target.repeatedDir(dir, level, isLast, linkTarget);
+            return;
+        }
+        add(new Event(null) {
+            @Override
+            void render(String digest) {
+                target.repeatedDir(dir, level, isLast, linkTarget);
+            }
+        });
+    }
+
+    @Override
+    public void exitDir(final DirEntry dir, final int level, final long usage) {
+        if (pending.isEmpty()) {
+            target.exitDir(dir, level, usage);
+            return;
+        }
+        add(new Event(null) {
+            @Override
+            void render(String digest) {
+                target.exitDir(dir, level, usage);
+            }
+        });
+    }
+
+    // renders everything still queued, waiting for the digests
+    public void flush() {
+        drain(0);
+    }
+
+    // drops everything still queued, for a walk that was abandoned
+    public void cancel() {
+        for (Event event : pending) {
+            if (event.digest != null) {
+                event.digest.cancel(false);
+            }
+        }
+        pending.clear();
+    }
+
+    @Override
+    public void report(int dirCount, int fileCount, int failedCount, int timedOutCount,
+            long usage) {
+        drain(0);
+        target.report(dirCount, fileCount, failedCount, timedOutCount, usage);
+    }
+
+    @Override
+    public void endTree() {
+        drain(0);
+        target.endTree();
+    }
+
+    private void add(Event event) {
+        pending.add(event);
+        drain(MAX_PENDING);
+    }
+
+    // renders the events whose digests are known, and waits for the
+    // oldest ones while more than maxPending are queued
+    private void drain(int maxPending) {
+        while (!pending.isEmpty()) {
+            Event event = pending.peek();
+            if (event.digest != null && !event.digest.isDone() && pending.size() <= maxPending) {
+                return;
+            }
+            pending.remove();
+            event.render(getDigest(event.digest));
+        }
+    }
+
+    private static String getDigest(Future<String> digest) {
+        if (digest == null) {
+            return null;
+        }
+        try {
+            return digest.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // listed without a digest, like an unreadable file
+        }
+        return null;
+    }
+
+    private abstract static class Event {
+        final Future<String> digest;
+
+        Event(Future<String> digest) {
+            this.digest = digest;
+        }
+
+        abstract void render(String digest);
+    }
+}
@@ -0,0 +1,190 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+/**
+ * Renders the listing as one JSON array holding the start dir, with the
+ * entries of each dir in its "contents" array, followed by the report.
+ * With --du the total size of a dir follows its contents, where it is known.
+ */
+final class JsonRenderer implements TreeRenderer {
+    private final TreeConfig config;
+    private final TimeFormat timeFormat;
+    private final StringBuilder line = new StringBuilder(256);
+    
+    // the levels that already have an item, which the next one is separated from
+    private final BitSet hasItems = new BitSet();
+
+    JsonRenderer(TreeConfig config) {
+        this.config = config;
+        // the zone and locale data are only loaded for -D
+        this.timeFormat = config.includeLastModifiedDate()
+                ? TimeFormat.compile(config.getTimeFormat())
+                : null;
+    }
+
+    @Override
+    public void startTree() {
+        Log.print("[");
+    }
+
+    @Override
+    public void enterDir(DirEntry dir, int level, boolean isLast, boolean exceedsLimit, String change) {
+        startItem(level).append("{\"type\":\"directory\",\"name\":");
+        appendString(line, getName(dir, level));
+        appendChange(change).append(",\"contents\":[");
+        Log.print(line);
+        hasItems.clear(level + 1);
+        if (exceedsLimit) {
+            startItem(level + 1).append("{\"error\":\"more than ")
+                    .append(config.getFileLimit())
+                    .append(" entries, not opening dir\"}");
+            Log.print(line);
+        }
+    }
+
+    @Override
+    public void file(DirEntry file, int level, boolean isLast, String change, String digest) {
+        startItem(level).append("{\"type\":\"file\",\"name\":");
+        appendString(line, getName(file, level));
+        appendChange(change);
+        if (config.includeFileSize() || config.includeFileSizeInBytes()) {
+            line.append(",\"size\":").append(file.size);
+        }
+        if (config.includeLastModifiedDate()) {
+            appendString(line.append(",\"time\":"), timeFormat.format(file.lastModified));
+        }
+        if (digest != null) {
+            line.append(",\"").append(config.getHashName()).append("\":\"").append(digest).append('"');
+        }
+        Log.print(line.append('}'));
+    }
+
+    @Override
+    public void failed(Path path, int level, boolean isLast, IOException ex) {
+        startItem(level).append("{\"type\":\"error\",\"name\":");
+        appendString(line, String.valueOf(path.getFileName()))
+                .append(",\"error\":\"").append(ex.getClass().getSimpleName()).append('"');
+        String reason = TreeRenderer.getReason(ex);
+        if (reason != null) {
+            appendString(line.append(",\"reason\":"), reason);
+        }
+        Log.print(line.append('}'));
+    }
+
+    @Override
+    public void repeatedDir(DirEntry dir, int level, boolean isLast, Path linkTarget) {
+        startItem(level).append("{\"type\":\"reference\",\"name\":");
+        appendString(line, getName(dir, level));
+        if (linkTarget != null) {
+            line.append(",\"target\":");
+            appendString(line, linkTarget.toString());
+        }
+        Log.print(line.append('}'));
+    }
+
+    @Override
+    public void exitDir(DirEntry dir, int level, long usage) {
+        line.setLength(0);
+        appendIndent(level).append(']');
+        if (config.showDiskUsage()) {
+            line.append(",\"size\":").append(usage);
+        }
+        Log.println();
+        Log.print(line.append('}'));
+    }
+
+    @Override
+    public void report(int dirCount, int fileCount, int failedCount, int timedOutCount,
+            long usage) {
+        startItem(0).append("{\"type\":\"report\",\"directories\":").append(dirCount);
+        if (!config.includeOnlyDirs()) {
+            line.append(",\"files\":").append(fileCount);
+        }
+        if (failedCount > 0) {
+            line.append(",\"failed\":").append(failedCount);
+        }
+        if (timedOutCount > 0) {
+            line.append(",\"timedOut\":").append(timedOutCount);
+        }
+        if (config.showDiskUsage()) {
+            line.append(",\"size\":").append(usage);
+        }
+        Log.print(line.append('}'));
+    }
+
+    @Override
+    public void endTree() {
+        Log.println();
+        Log.println("]");
+    }
+
+    // the start dir keeps the path it was given
+    private String getName(DirEntry entry, int level) {
+        if (config.includeFullPath()) {
+            return entry.getAbsolutePath();
+        }
+        return (level == 0) ? config.getStartDirPath() : entry.name;
+    }
+
+    private StringBuilder appendChange(String change) {
+        if (change != null) {
+            line.append(",\"change\":\"").append(change).append('"');
+        }
+        return line;
+    }
+
+    private StringBuilder startItem(int level) {
+        if (hasItems.get(level)) {
+            Log.print(",");
+        }
+        hasItems.set(level);
+        Log.println();
+        line.setLength(0);
+        return appendIndent(level);
+    }
+
+    private StringBuilder appendIndent(int level) {
+        for (int i = 0; i <= level; i++) {
+            line.append("  ");
+        }
+        return line;
+    }
+
+    static StringBuilder appendString(StringBuilder sb, CharSequence value) {
+        sb.append('"');
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append("\\u00");
+                        sb.append(Character.forDigit(c >> 4, 16));
+                        sb.append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        return sb.append('"');
+    }
+}
@@ -1,23 +1,54 @@
 package com.nomscon.tools.tree;
 
 public final class Log {
-    public final static void print(String value) {
-        System.out.print(value);
+    private static OutputSink sink = ChannelSink.forStdout();
+    // a sink of the calling thread's own, in place of the shared one
+    private final static ThreadLocal<OutputSink> threadSink = new ThreadLocal<>();
+
+    public final static OutputSink getSink() {
+        OutputSink own = threadSink.get();
+        return (own != null) ? own : sink;
+    }
+
+    public final static void setSink(OutputSink value) {
+        sink.flush();
+        sink = value;
+    }
+
+    // null goes back to the shared sink
+    final static void setThreadSink(OutputSink value) {
+        if (value != null) {
+            threadSink.set(value);
+        } else {
+            threadSink.remove();
+        }
+    }
+
+    public final static void print(CharSequence value) {
+        getSink().write(value);
     }
 
     public final static void print(String format, Object... args) {
-        System.out.print(String.format(format, args));
+        getSink().write(String.format(format, args));
     }
 
     public final static void println() {
-        System.out.println();
+        getSink().newLine();
     }
 
-    public final static void println(String value) {
-        System.out.println(value);
+    public final static void println(CharSequence value) {
+        OutputSink out = getSink();
+        out.write(value);
+        out.newLine();
     }
 
     public final static void println(String format, Object... args) {
-        System.out.println(String.format(format, args));
+        OutputSink out = getSink();
+        out.write(String.format(format, args));
+        out.newLine();
+    }
+
+    public final static void flush() {
+        getSink().flush();
     }
 }
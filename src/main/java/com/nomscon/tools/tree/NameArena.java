@@ -0,0 +1,116 @@
+package com.nomscon.tools.tree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * File names, each stored once as UTF-8 in one growing byte array and known
+ * by an int id. Most trees repeat a small set of names (README, index.js,
+ * Makefile...), so interning them costs a few bytes a distinct name instead
+ * of a String per entry.
+ */
+final class NameArena {
+    private final static int INITIAL_CAPACITY = 256;
+    // a free slot of the table
+    private final static int FREE = -1;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY * 16];
+    private int length = 0;
+    // where each name starts; the next one's offset is where it ends
+    private int[] offsets = new int[INITIAL_CAPACITY + 1];
+    private int count = 0;
+    // ids by hash of their bytes, open addressing
+    private int[] table = newTable(INITIAL_CAPACITY * 2);
+
+    // the id of name, added when it is new
+    public int intern(String name) {
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(utf8);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != FREE) {
+            int id = table[slot];
+            if (equals(id, utf8)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = append(utf8);
+        table[slot] = id;
+        if (count * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    public String get(int id) {
+        int offset = offsets[id];
+        return new String(bytes, offset, offsets[id + 1] - offset, StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // the bytes held for the names and their ids
+    public long getMemoryUsage() {
+        return bytes.length + 4L * offsets.length + 4L * table.length;
+    }
+
+    private int append(byte[] utf8) {
+        if (length + utf8.length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + utf8.length));
+        }
+        System.arraycopy(utf8, 0, bytes, length, utf8.length);
+        length += utf8.length;
+        if (count + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[count + 1] = length;
+        return count++;
+    }
+
+    private boolean equals(int id, byte[] utf8) {
+        int offset = offsets[id];
+        if (offsets[id + 1] - offset != utf8.length) {
+            return false;
+        }
+        for (int i = 0; i < utf8.length; i++) {
+            if (bytes[offset + i] != utf8[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = newTable(table.length * 2);
+        int mask = table.length - 1;
+        for (int id = 0; id < count; id++) {
+            int offset = offsets[id];
+            int slot = hash(bytes, offset, offsets[id + 1] - offset) & mask;
+            while (table[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, FREE);
+        return table;
+    }
+
+    private static int hash(byte[] utf8) {
+        return hash(utf8, 0, utf8.length);
+    }
+
+    private static int hash(byte[] b, int offset, int length) {
+        int h = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ b[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
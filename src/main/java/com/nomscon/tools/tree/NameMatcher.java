@@ -0,0 +1,198 @@
+package com.nomscon.tools.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches file names against a set of wildcard patterns (*, ?, [...])
+ * separated by '|'. The patterns are compiled once: literal names go into a
+ * trie and the wildcard ones into a single combined regex, so matching a
+ * name allocates nothing.
+ */
+final class NameMatcher {
+    private final TrieNode literals;
+    private final Pattern wildcards;
+    private final ThreadLocal<Matcher> matchers;
+
+    private NameMatcher(TrieNode literals, final Pattern wildcards) {
+        this.literals = literals;
+        this.wildcards = wildcards;
+        this.matchers = (wildcards == null) ? null : new ThreadLocal<Matcher>() {
+            @Override
+            protected Matcher initialValue() {
+                return wildcards.matcher("");
+            }
+        };
+    }
+
+    // returns null when there are no patterns
+    public static NameMatcher compile(String[] patternLists) {
+        if (patternLists == null) {
+            return null;
+        }
+        TrieBuilder literals = new TrieBuilder();
+        StringBuilder regex = new StringBuilder();
+        for (String patternList : patternLists) {
+            for (String pattern : patternList.split("\\|")) {
+                if (pattern.isEmpty()) {
+                    continue;
+                }
+                if (isLiteral(pattern)) {
+                    literals.add(pattern);
+                } else {
+                    if (regex.length() > 0) {
+                        regex.append('|');
+                    }
+                    regex.append("(?:");
+                    appendRegex(regex, pattern);
+                    regex.append(')');
+                }
+            }
+        }
+        if (literals.isEmpty() && regex.length() == 0) {
+            return null;
+        }
+        return new NameMatcher(
+                literals.isEmpty() ? null : literals.build(),
+                (regex.length() == 0) ? null : Pattern.compile(regex.toString(), Pattern.DOTALL));
+    }
+
+    public boolean matches(CharSequence name) {
+        if (literals != null && literals.contains(name)) {
+            return true;
+        }
+        if (wildcards != null) {
+            Matcher matcher = matchers.get();
+            matcher.reset(name);
+            return matcher.matches();
+        }
+        return false;
+    }
+
+    private static boolean isLiteral(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '[') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void appendRegex(StringBuilder regex, String glob) {
+        int len = glob.length();
+        for (int i = 0; i < len; i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0) {
+                        regex.append("\\[");
+                        break;
+                    }
+                    regex.append('[');
+                    int start = i + 1;
+                    if (glob.charAt(start) == '!' || glob.charAt(start) == '^') {
+                        regex.append('^');
+                        start++;
+                    }
+                    for (int j = start; j < end; j++) {
+                        char rc = glob.charAt(j);
+                        if (rc == '\\' || rc == '[' || rc == ']' || rc == '&' || rc == '^') {
+                            regex.append('\\');
+                        }
+                        regex.append(rc);
+                    }
+                    regex.append(']');
+                    i = end;
+                    break;
+                default:
+                    if ("\\.^$+{}()|]".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+                    break;
+            }
+        }
+    }
+
+    private static final class TrieNode {
+        private final char[] keys;
+        private final TrieNode[] children;
+        private final boolean isTerminal;
+
+        TrieNode(char[] keys, TrieNode[] children, boolean isTerminal) {
+            this.keys = keys;
+            this.children = children;
+            this.isTerminal = isTerminal;
+        }
+
+        boolean contains(CharSequence name) {
+            TrieNode node = this;
+            int len = name.length();
+            for (int i = 0; i < len; i++) {
+                int k = Arrays.binarySearch(node.keys, name.charAt(i));
+                if (k < 0) {
+                    return false;
+                }
+                node = node.children[k];
+            }
+            return node.isTerminal;
+        }
+    }
+
+    private static final class TrieBuilder {
+        private final List<String> names = new ArrayList<>();
+
+        void add(String name) {
+            names.add(name);
+        }
+
+        boolean isEmpty() {
+            return names.isEmpty();
+        }
+
+        TrieNode build() {
+            String[] sorted = names.toArray(new String[names.size()]);
+            Arrays.sort(sorted);
+            return build(sorted, 0, sorted.length, 0);
+        }
+
+        // sorted[from, to) share their first depth chars
+        private static TrieNode build(String[] sorted, int from, int to, int depth) {
+            boolean isTerminal = false;
+            List<Character> keys = new ArrayList<>();
+            List<TrieNode> children = new ArrayList<>();
+            int i = from;
+            while (i < to) {
+                if (sorted[i].length() == depth) {
+                    isTerminal = true;
+                    i++;
+                    continue;
+                }
+                char c = sorted[i].charAt(depth);
+                int j = i + 1;
+                while (j < to && sorted[j].length() > depth && sorted[j].charAt(depth) == c) {
+                    j++;
+                }
+                keys.add(c);
+                children.add(build(sorted, i, j, depth + 1));
+                i = j;
+            }
+            char[] keyArray = new char[keys.size()];
+            for (int k = 0; k < keyArray.length; k++) {
+                keyArray[k] = keys.get(k);
+            }
+            return new TrieNode(keyArray, children.toArray(new TrieNode[children.size()]), isTerminal);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Renders one self-contained JSON object per line, each carrying the path
+ * and depth of its entry, so a consumer can process lines independently.
+ * With --du a dir is written when it is exited, once its size is known.
+ */
+final class NdjsonRenderer implements TreeRenderer {
+    private final TreeConfig config;
+    private final TimeFormat timeFormat;
+    private final StringBuilder line = new StringBuilder(256);
+    
+    // a dir over the file limit has no entries, so it is exited right after
+    private DirEntry unopenedDir = null;
+    // with --du a dir is written on exit, with the change it was entered with
+    private String[] dirChanges = new String[16];
+
+    NdjsonRenderer(TreeConfig config) {
+        this.config = config;
+        // the zone and locale data are only loaded for -D
+        this.timeFormat = config.includeLastModifiedDate()
+                ? TimeFormat.compile(config.getTimeFormat())
+                : null;
+    }
+
+    @Override
+    public void startTree() {
+    }
+
+    @Override
+    public void enterDir(DirEntry dir, int level, boolean isLast, boolean exceedsLimit, String change) {
+        unopenedDir = exceedsLimit ? dir : null;
+        if (!config.showDiskUsage()) {
+            writeDir(dir, level, exceedsLimit, -1, change);
+            return;
+        }
+        if (level >= dirChanges.length) {
+            dirChanges = Arrays.copyOf(dirChanges, level * 2);
+        }
+        dirChanges[level] = change;
+    }
+
+    @Override
+    public void file(DirEntry file, int level, boolean isLast, String change, String digest) {
+        startEntry("file", file.path, level, change);
+        if (config.includeFileSize() || config.includeFileSizeInBytes()) {
+            line.append(",\"size\":").append(file.size);
+        }
+        if (config.includeLastModifiedDate()) {
+            JsonRenderer.appendString(line.append(",\"time\":"), timeFormat.format(file.lastModified));
+        }
+        if (digest != null) {
+            line.append(",\"").append(config.getHashName()).append("\":\"").append(digest).append('"');
+        }
+        Log.println(line.append('}'));
+    }
+
+    @Override
+    public void failed(Path path, int level, boolean isLast, IOException ex) {
+        startEntry("error", path, level, null)
+                .append(",\"error\":\"").append(ex.getClass().getSimpleName()).append('"');
+        String reason = TreeRenderer.getReason(ex);
+        if (reason != null) {
+            JsonRenderer.appendString(line.append(",\"reason\":"), reason);
+        }
+        Log.println(line.append('}'));
+    }
+
+    @Override
+    public void repeatedDir(DirEntry dir, int level, boolean isLast, Path linkTarget) {
+        startEntry("reference", dir.path, level, null);
+        if (linkTarget != null) {
+            line.append(",\"target\":");
+            JsonRenderer.appendString(line, linkTarget.toString());
+        }
+        Log.println(line.append('}'));
+    }
+
+    @Override
+    public void exitDir(DirEntry dir, int level, long usage) {
+        if (config.showDiskUsage()) {
+            writeDir(dir, level, dir == unopenedDir, usage, dirChanges[level]);
+        }
+        unopenedDir = null;
+    }
+
+    @Override
+    public void report(int dirCount, int fileCount, int failedCount, int timedOutCount,
+            long usage) {
+        line.setLength(0);
+        line.append("{\"type\":\"report\",\"directories\":").append(dirCount);
+        if (!config.includeOnlyDirs()) {
+            line.append(",\"files\":").append(fileCount);
+        }
+        if (failedCount > 0) {
+            line.append(",\"failed\":").append(failedCount);
+        }
+        if (timedOutCount > 0) {
+            line.append(",\"timedOut\":").append(timedOutCount);
+        }
+        if (config.showDiskUsage()) {
+            line.append(",\"size\":").append(usage);
+        }
+        Log.println(line.append('}'));
+    }
+
+    @Override
+    public void endTree() {
+    }
+
+    private void writeDir(DirEntry dir, int level, boolean exceedsLimit, long usage, String change) {
+        startEntry("directory", dir.path, level, change);
+        if (usage >= 0) {
+            line.append(",\"size\":").append(usage);
+        }
+        if (exceedsLimit) {
+            line.append(",\"error\":\"more than ")
+                    .append(config.getFileLimit())
+                    .append(" entries, not opening dir\"");
+        }
+        Log.println(line.append('}'));
+    }
+
+    private StringBuilder startEntry(String type, Path path, int level, String change) {
+        line.setLength(0);
+        line.append("{\"type\":\"").append(type).append("\",\"path\":");
+        JsonRenderer.appendString(line, config.includeFullPath()
+                ? path.toAbsolutePath().toString()
+                : path.toString());
+        line.append(",\"depth\":").append(level);
+        if (change != null) {
+            line.append(",\"change\":\"").append(change).append('"');
+        }
+        return line;
+    }
+}
@@ -0,0 +1,32 @@
+package com.nomscon.tools.tree;
+
+/**
+ * Discards everything written to it, for measuring a listing without the
+ * cost of encoding and writing the output.
+ */
+final class NullSink implements OutputSink {
+    private long charCount = 0;
+
+    public long getCharCount() { return charCount; }
+
+    @Override
+    public void write(CharSequence value) {
+        charCount += value.length();
+    }
+
+    @Override
+    public void newLine() {
+        charCount++;
+    }
+
+    @Override
+    public void flush() { }
+
+    @Override
+    public void close() { }
+
+    @Override
+    public boolean checkError() {
+        return false;
+    }
+}
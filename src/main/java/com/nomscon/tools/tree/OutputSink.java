@@ -0,0 +1,17 @@
+package com.nomscon.tools.tree;
+
+/**
+ * Destination for everything {@link Log} prints. Like a PrintStream, a sink
+ * does not throw on write failures; check {@link #checkError()} at the end.
+ */
+public interface OutputSink {
+    void write(CharSequence value);
+
+    void newLine();
+
+    void flush();
+
+    void close();
+
+    boolean checkError();
+}
@@ -0,0 +1,22 @@
+package com.nomscon.tools.tree;
+
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+
+/**
+ * A directory whose read took longer than the timeout, such as one on a
+ * mount that stopped answering. The read is abandoned, not stopped: its
+ * thread is left blocked in the file system call until that returns.
+ */
+public final class ReadTimeoutException extends FileSystemException {
+    private final static long serialVersionUID = 1L;
+
+    private final int timeoutMillis;
+
+    ReadTimeoutException(Path dir, int timeoutMillis) {
+        super(dir.toString(), null, "timed out after " + timeoutMillis + " ms");
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getTimeoutMillis() { return timeoutMillis; }
+}
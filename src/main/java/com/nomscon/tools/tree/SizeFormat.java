@@ -0,0 +1,45 @@
+package com.nomscon.tools.tree;
+
+/**
+ * Appends byte counts to a reused StringBuilder, either as plain digits or
+ * in the K, M, G... units of -h, without creating intermediate strings.
+ */
+final class SizeFormat {
+    private final static char[] UNITS = { 'K', 'M', 'G', 'T', 'P', 'E' };
+
+    private SizeFormat() {
+    }
+
+    // one decimal below 10 of a unit, as in 4.0K, whole units above, as in 12M
+    public static StringBuilder appendHuman(StringBuilder sb, long size) {
+        if (size < 1024) {
+            return sb.append(size);
+        }
+        double value = size / 1024.0;
+        int unit = 0;
+        while (value >= 1024 && unit < UNITS.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        // what rounds up to 1024 of a unit is printed as 1.0 of the next, as in 1.0M
+        if (Math.round(value) >= 1024 && unit < UNITS.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        if (value < 9.95) {
+            long tenths = Math.round(value * 10);
+            sb.append(tenths / 10).append('.').append(tenths % 10);
+        } else {
+            sb.append(Math.round(value));
+        }
+        return sb.append(UNITS[unit]);
+    }
+
+    // right aligns whatever was appended since start within width chars
+    public static StringBuilder padLeft(StringBuilder sb, int start, int width) {
+        while (sb.length() - start < width) {
+            sb.insert(start, ' ');
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,287 @@
+package com.nomscon.tools.tree;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the entries of a TAR from its 512 byte header blocks. The contents
+ * of an uncompressed archive are skipped by seeking, so only the headers
+ * are read; a gzipped one still has to be inflated to get past them. GNU
+ * long names and the path, size and mtime of POSIX extended headers are
+ * applied to the entry they precede.
+ */
+final class TarReader {
+    private final static int BLOCK_SIZE = 512;
+
+    private final static byte FILE = '0';
+    private final static byte OLD_FILE = 0;
+    private final static byte HARD_LINK = '1';
+    private final static byte SYMBOLIC_LINK = '2';
+    private final static byte DIR = '5';
+    private final static byte CONTIGUOUS_FILE = '7';
+    private final static byte GNU_LONG_NAME = 'L';
+    private final static byte PAX_HEADER = 'x';
+
+    private final Blocks blocks;
+    private final ArchiveTree tree;
+    private final byte[] header = new byte[BLOCK_SIZE];
+
+    // set by the extension headers, for the next entry only
+    private String longName = null;
+    private String paxPath = null;
+    private long paxSize = -1;
+    private long paxTime = -1;
+
+    private TarReader(Blocks blocks, ArchiveTree tree) {
+        this.blocks = blocks;
+        this.tree = tree;
+    }
+
+    static void read(Path file, ArchiveTree tree) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            new TarReader(new ChannelBlocks(channel), tree).readEntries();
+        }
+    }
+
+    static void readGzip(Path file, ArchiveTree tree) throws IOException {
+        try (InputStream in = new GZIPInputStream(
+                Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)), 65536)) {
+            new TarReader(new StreamBlocks(in), tree).readEntries();
+        }
+    }
+
+    private void readEntries() throws IOException {
+        // the archive ends with zero blocks, or just ends
+        while (blocks.read(header) && !isZeroBlock()) {
+            if (parseOctal(148, 8) != checksum()) {
+                throw new IOException("bad tar header checksum");
+            }
+            byte type = header[156];
+            long size = parseNumber(124, 12);
+            if (type == GNU_LONG_NAME) {
+                longName = trimNul(readData(size));
+                continue;
+            }
+            if (type == PAX_HEADER) {
+                parsePax(readData(size));
+                continue;
+            }
+            String name = (longName != null) ? longName
+                    : (paxPath != null) ? paxPath
+                    : getName();
+            if (paxSize >= 0) {
+                size = paxSize;
+            }
+            long lastModified = (paxTime >= 0) ? paxTime : parseNumber(136, 12) * 1000;
+            boolean isDir = type == DIR || name.endsWith("/");
+            // links are listed as they are, like the file walk lists them
+            boolean isFile = !isDir && (type == FILE || type == OLD_FILE || type == HARD_LINK
+                    || type == SYMBOLIC_LINK || type == CONTIGUOUS_FILE);
+            // devices, global headers and other extensions are not listed
+            if (isDir || isFile) {
+                tree.add(name, isDir, isFile, (type == HARD_LINK) ? 0 : size, lastModified);
+            }
+            longName = null;
+            paxPath = null;
+            paxSize = -1;
+            paxTime = -1;
+            // links, devices and dirs have no contents, whatever their size says
+            if (type < HARD_LINK || type > '6') {
+                blocks.skip(padded(size));
+            }
+        }
+    }
+
+    private String getName() {
+        String name = getString(0, 100);
+        String prefix = getString(345, 155);
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private byte[] readData(long size) throws IOException {
+        if (size > Integer.MAX_VALUE - BLOCK_SIZE) {
+            throw new IOException("tar extension header too large: " + size);
+        }
+        byte[] data = new byte[(int) padded(size)];
+        for (int offset = 0; offset < data.length; offset += BLOCK_SIZE) {
+            if (!blocks.read(header)) {
+                throw new EOFException("truncated tar");
+            }
+            System.arraycopy(header, 0, data, offset, BLOCK_SIZE);
+        }
+        return (data.length == size) ? data : Arrays.copyOf(data, (int) size);
+    }
+
+    // records of "<length> <key>=<value>\n"
+    private void parsePax(byte[] data) {
+        int position = 0;
+        while (position < data.length) {
+            int space = position;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, position, space - position,
+                        StandardCharsets.US_ASCII));
+            } catch (NumberFormatException ex) {
+                return;
+            }
+            if (length <= 0 || position + length > data.length) {
+                return;
+            }
+            String record = new String(data, space + 1, position + length - space - 2,
+                    StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                String key = record.substring(0, equals);
+                String value = record.substring(equals + 1);
+                try {
+                    if (key.equals("path")) {
+                        paxPath = value;
+                    } else if (key.equals("size")) {
+                        paxSize = Long.parseLong(value);
+                    } else if (key.equals("mtime")) {
+                        paxTime = (long) (Double.parseDouble(value) * 1000);
+                    }
+                } catch (NumberFormatException ex) {
+                    // the header block's value stands
+                }
+            }
+            position += length;
+        }
+    }
+
+    private boolean isZeroBlock() {
+        for (byte b : header) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the unsigned sum of the header with its checksum field as spaces
+    private long checksum() {
+        long sum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            sum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xFF);
+        }
+        return sum;
+    }
+
+    // octal, or base 256 when the high bit of the first byte is set
+    private long parseNumber(int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xFF);
+            }
+            return value;
+        }
+        return parseOctal(offset, length);
+    }
+
+    private long parseOctal(int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || (b == ' ' && value > 0)) {
+                break;
+            }
+            if (b >= '0' && b <= '7') {
+                value = (value << 3) + (b - '0');
+            }
+        }
+        return value;
+    }
+
+    private String getString(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNul(byte[] data) {
+        int end = 0;
+        while (end < data.length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static long padded(long size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    private interface Blocks {
+        // false at the end of the archive
+        boolean read(byte[] block) throws IOException;
+
+        void skip(long length) throws IOException;
+    }
+
+    private static final class ChannelBlocks implements Blocks {
+        private final FileChannel channel;
+
+        ChannelBlocks(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public boolean read(byte[] block) throws IOException {
+            return ArchiveTree.readFully(channel, ByteBuffer.wrap(block)) == block.length;
+        }
+
+        @Override
+        public void skip(long length) throws IOException {
+            channel.position(channel.position() + length);
+        }
+    }
+
+    private static final class StreamBlocks implements Blocks {
+        private final InputStream in;
+
+        StreamBlocks(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public boolean read(byte[] block) throws IOException {
+            int read = 0;
+            while (read < block.length) {
+                int n = in.read(block, read, block.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return true;
+        }
+
+        @Override
+        public void skip(long length) throws IOException {
+            while (length > 0) {
+                long n = in.skip(length);
+                if (n <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("truncated tar");
+                    }
+                    n = 1;
+                }
+                length -= n;
+            }
+        }
+    }
+}
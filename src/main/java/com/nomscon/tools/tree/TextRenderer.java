@@ -0,0 +1,229 @@
+package com.nomscon.tools.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Renders the classic indented listing: the start dir, then each entry
+ * below it with dirs marked by a trailing separator. Only the last entry of
+ * a dir gets "`-- ", and the levels above it are continued by "|   " while
+ * their dir has entries left, by blanks once it had its last one.
+ */
+final class TextRenderer implements TreeRenderer {
+    private final TreeConfig config;
+    private final boolean isComparing;
+    private final TimeFormat timeFormat;
+    
+    // whether the dir open at each level was the last entry of its own dir
+    private boolean[] isLastAtLevel = new boolean[16];
+    
+    // each output line is assembled here and written with a single call
+    private final StringBuilder line = new StringBuilder(256);
+    
+    // with --du, the total of a dir is only known once it is exited, so its
+    // line waits here until then or until something below it is printed;
+    // a dir whose line went out first gets its total on a closing line
+    private final StringBuilder heldDirLine = new StringBuilder(256);
+    private DirEntry heldDir = null;
+    private boolean heldDirExceedsLimit = false;
+
+    TextRenderer(TreeConfig config) {
+        this.config = config;
+        // the zone and locale data are only loaded for -D
+        this.timeFormat = config.includeLastModifiedDate()
+                ? TimeFormat.compile(config.getTimeFormat())
+                : null;
+        this.isComparing = config.getComparePath() != null;
+    }
+
+    @Override
+    public void startTree() {
+    }
+
+    @Override
+    public void enterDir(DirEntry dir, int level, boolean isLast, boolean exceedsLimit, String change) {
+        printHeldDirLine();
+        if (level == 0) {
+            // each of several roots is named as it was given
+            startLine(0, false, change);
+            line.append(config.isBatch()
+                    ? config.getStartDirPath()
+                    : new File(config.getStartDirPath()).getName());
+        } else {
+            startLine(level, isLast, change);
+            line.append(config.includeFullPath() 
+                    ? dir.getAbsolutePath()
+                    : dir.name)
+                    .append(File.separatorChar);
+            setLastAtLevel(level, isLast);
+            if (config.showDiskUsage()) {
+                heldDirLine.setLength(0);
+                heldDirLine.append(line);
+                heldDir = dir;
+                heldDirExceedsLimit = exceedsLimit;
+                return;
+            }
+        }
+        Log.println(appendLimit(line, exceedsLimit));
+    }
+
+    @Override
+    public void file(DirEntry file, int level, boolean isLast, String change, String digest) {
+        printHeldDirLine();
+        startLine(level, isLast, change);
+        line.append(config.includeFullPath() 
+                ? file.getAbsolutePath()
+                : file.name);
+        
+        if (config.includeLastModifiedDate())
+            timeFormat.appendTo(line.append(" ["), file.lastModified).append(']');
+        if (config.includeFileSize() || config.includeFileSizeInBytes()) {
+            appendSize(line.append(' '), file.size);
+        }
+        if (digest != null) {
+            line.append(' ').append(digest);
+        }
+        
+        Log.println(line);
+    }
+
+    @Override
+    public void failed(Path path, int level, boolean isLast, IOException ex) {
+        printHeldDirLine();
+        startLine(level, isLast, null)
+                .append((level == 0 && config.isBatch()) ? config.getStartDirPath() : path.getFileName())
+                .append(" - Failed: ")
+                .append(ex.getClass().getSimpleName());
+        String reason = TreeRenderer.getReason(ex);
+        if (reason != null) {
+            line.append(" (").append(reason).append(')');
+        }
+        Log.println(line);
+    }
+
+    @Override
+    public void repeatedDir(DirEntry dir, int level, boolean isLast, Path linkTarget) {
+        printHeldDirLine();
+        startLine(level, isLast, null);
+        line.append(config.includeFullPath() 
+                ? dir.getAbsolutePath()
+                : dir.name)
+                .append(File.separatorChar);
+        if (linkTarget != null) {
+            line.append(" -> ").append(linkTarget);
+        }
+        Log.println(line.append(" [already listed]"));
+    }
+
+    @Override
+    public void exitDir(DirEntry dir, int level, long usage) {
+        // the start dir's total is in the summary
+        if (!config.showDiskUsage() || level == 0) {
+            return;
+        }
+        if (heldDir == dir) {
+            // nothing below it was printed, so the total goes on its own line
+            heldDir = null;
+            appendSize(heldDirLine.append(' '), usage);
+            Log.println(appendLimit(heldDirLine, heldDirExceedsLimit));
+            return;
+        }
+        line.setLength(0);
+        if (!config.skipIndent()) {
+            for (int i = 1; i <= level; i++) {
+                line.append(isLastAtLevel[i] ? "    " : "|   ");
+            }
+        }
+        appendSize(line, usage)
+                .append(" in ")
+                .append(config.includeFullPath() 
+                        ? dir.getAbsolutePath()
+                        : dir.name)
+                .append(File.separatorChar);
+        Log.println(line);
+    }
+
+    @Override
+    public void report(int dirCount, int fileCount, int failedCount, int timedOutCount,
+            long usage) {
+        printHeldDirLine();
+        line.setLength(0);
+        line.append(' ');
+        if (config.showDiskUsage()) {
+            appendSize(line, usage).append(" used in ");
+        }
+        line.append(dirCount).append((dirCount == 1) ? " directory" : " directories");
+        if (!config.includeOnlyDirs()) {
+            line.append(", ").append(fileCount).append((fileCount == 1) ? " file" : " files");
+        }
+        if (failedCount > 0) {
+            line.append(", ").append(failedCount).append(" could not be read");
+            if (timedOutCount > 0) {
+                line.append(", ").append(timedOutCount).append(" timed out");
+            }
+        }
+        Log.println();
+        Log.println(line);
+    }
+
+    @Override
+    public void endTree() {
+        printHeldDirLine();
+    }
+
+    // with --compare each line starts with a +, - or ~ column
+    private StringBuilder startLine(int level, boolean isLast, String change) {
+        line.setLength(0);
+        if (isComparing) {
+            line.append(TreeRenderer.ADDED.equals(change) ? '+'
+                    : TreeRenderer.REMOVED.equals(change) ? '-'
+                    : TreeRenderer.CHANGED.equals(change) ? '~'
+                    : ' ');
+            line.append(' ');
+        }
+        if (level == 0) {
+            return line;
+        }
+        if (!config.skipIndent()) {
+            for (int i = 1; i < level; i++) {
+                line.append(isLastAtLevel[i] ? "    " : "|   ");
+            }
+            line.append(isLast ? "`-- " : "|-- ");
+        }
+        return line;
+    }
+    
+    private void setLastAtLevel(int level, boolean isLast) {
+        if (level >= isLastAtLevel.length) {
+            isLastAtLevel = Arrays.copyOf(isLastAtLevel, level * 2);
+        }
+        isLastAtLevel[level] = isLast;
+    }
+    
+    // a dir line held for --du goes out without its total once something
+    // below the dir is printed
+    private void printHeldDirLine() {
+        if (heldDir != null) {
+            heldDir = null;
+            Log.println(appendLimit(heldDirLine, heldDirExceedsLimit));
+        }
+    }
+    
+    private StringBuilder appendLimit(StringBuilder sb, boolean exceedsLimit) {
+        if (exceedsLimit) {
+            sb.append(" [more than ")
+                    .append(config.getFileLimit())
+                    .append(" entries, not opening dir]");
+        }
+        return sb;
+    }
+    
+    // in units with -h, in bytes with -s or --du
+    private StringBuilder appendSize(StringBuilder sb, long size) {
+        return config.includeFileSize()
+                ? SizeFormat.appendHuman(sb, size)
+                : sb.append(size).append(" bytes");
+    }
+}
@@ -0,0 +1,410 @@
+package com.nomscon.tools.tree;
+
+import java.nio.CharBuffer;
+import java.text.DateFormatSymbols;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Formats file times by a strftime(3) pattern, as given to --timefmt,
+ * into one reused char buffer. The pattern is compiled once into fields.
+ * The date fields only change with the day, so they are formatted once a
+ * day and kept in the buffer as a prefix; only the time of day fields after
+ * them are written again for each time. The zone offset is looked up again
+ * only past the transitions around the last one, so listing a tree creates
+ * no garbage. Not thread safe; each renderer compiles its own.
+ */
+final class TimeFormat {
+    final static String DEFAULT_PATTERN = "%Y-%m-%d";
+
+    private final static long MILLIS_PER_DAY = 86400000L;
+    private final static int[] DAYS_BEFORE_MONTH = {
+        0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334 };
+
+    // the fields a pattern compiles to; those below HOUR stay the same all day
+    private final static int TEXT = 0;
+    private final static int YEAR = 1;
+    private final static int YEAR_OF_CENTURY = 2;
+    private final static int CENTURY = 3;
+    private final static int MONTH = 4;
+    private final static int MONTH_NAME = 5;
+    private final static int MONTH_SHORT_NAME = 6;
+    private final static int DAY = 7;
+    private final static int DAY_SPACE_PADDED = 8;
+    private final static int DAY_OF_YEAR = 9;
+    private final static int WEEKDAY = 10;
+    private final static int WEEKDAY_FROM_SUNDAY = 11;
+    private final static int WEEKDAY_NAME = 12;
+    private final static int WEEKDAY_SHORT_NAME = 13;
+    private final static int OFFSET = 14;
+    private final static int ZONE_NAME = 15;
+    private final static int HOUR = 16;
+    private final static int HOUR_SPACE_PADDED = 17;
+    private final static int HOUR_12 = 18;
+    private final static int HOUR_12_SPACE_PADDED = 19;
+    private final static int MINUTE = 20;
+    private final static int SECOND = 21;
+    private final static int AM_PM = 22;
+    private final static int EPOCH_SECONDS = 23;
+
+    private final int[] fields;
+    // the text of each TEXT field, null for the others
+    private final String[] texts;
+    // the fields before the first time of day field
+    private final int dayFieldCount;
+    private final boolean hasZoneName;
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    private final String[] monthNames;
+    private final String[] monthShortNames;
+    // by Calendar.SUNDAY to Calendar.SATURDAY
+    private final String[] weekdayNames;
+    private final String[] weekdayShortNames;
+    private final String[] amPm;
+
+    private char[] buffer = new char[64];
+    private CharBuffer view = CharBuffer.wrap(buffer);
+    private int length = 0;
+
+    // the offset holds from offsetStart until offsetEnd, both in epoch millis
+    private long offsetStart = 0;
+    private long offsetEnd = 0;
+    private int offsetSeconds;
+    private String zoneName;
+
+    // the day and offset the date fields in the buffer were formatted for
+    private long prefixDay = Long.MIN_VALUE;
+    private int prefixOffset;
+    private int prefixLength;
+    private long year;
+    private int month;
+    private int day;
+    private int dayOfYear;
+    // 1 for Monday to 7 for Sunday
+    private int weekday;
+
+    private TimeFormat(List<Integer> fields, List<String> texts, ZoneId zone) {
+        this.fields = new int[fields.size()];
+        this.texts = texts.toArray(new String[texts.size()]);
+        int dayFields = -1;
+        boolean hasZone = false;
+        // the locale's names are only loaded for a pattern that has them
+        boolean hasNames = false;
+        for (int i = 0; i < this.fields.length; i++) {
+            this.fields[i] = fields.get(i);
+            if (this.fields[i] >= HOUR && dayFields < 0) {
+                dayFields = i;
+            }
+            hasZone |= this.fields[i] == ZONE_NAME;
+            hasNames |= (this.fields[i] >= MONTH_NAME && this.fields[i] <= MONTH_SHORT_NAME)
+                    || (this.fields[i] >= WEEKDAY_NAME && this.fields[i] <= WEEKDAY_SHORT_NAME)
+                    || this.fields[i] == AM_PM;
+        }
+        this.dayFieldCount = (dayFields < 0) ? this.fields.length : dayFields;
+        this.hasZoneName = hasZone;
+        this.zone = zone;
+        this.rules = zone.getRules();
+        DateFormatSymbols symbols = hasNames ? DateFormatSymbols.getInstance() : null;
+        this.monthNames = hasNames ? symbols.getMonths() : null;
+        this.monthShortNames = hasNames ? symbols.getShortMonths() : null;
+        this.weekdayNames = hasNames ? symbols.getWeekdays() : null;
+        this.weekdayShortNames = hasNames ? symbols.getShortWeekdays() : null;
+        this.amPm = hasNames ? symbols.getAmPmStrings() : null;
+    }
+
+    // throws IllegalArgumentException for a conversion that is not supported
+    public static TimeFormat compile(String pattern) {
+        List<Integer> fields = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        compile(pattern, fields, texts, text);
+        addText(fields, texts, text);
+        return new TimeFormat(fields, texts, ZoneId.systemDefault());
+    }
+
+    // the formatted time, valid until the next call
+    public CharSequence format(long millis) {
+        fill(millis);
+        view.limit(length);
+        view.position(0);
+        return view;
+    }
+
+    public StringBuilder appendTo(StringBuilder sb, long millis) {
+        fill(millis);
+        return sb.append(buffer, 0, length);
+    }
+
+    private void fill(long millis) {
+        if (millis < offsetStart || millis >= offsetEnd) {
+            findOffset(millis);
+        }
+        long local = millis + offsetSeconds * 1000L;
+        long epochDay = Math.floorDiv(local, MILLIS_PER_DAY);
+        if (epochDay != prefixDay || offsetSeconds != prefixOffset) {
+            setDay(epochDay);
+            prefixDay = epochDay;
+            prefixOffset = offsetSeconds;
+            length = 0;
+            for (int i = 0; i < dayFieldCount; i++) {
+                putField(i, millis, 0);
+            }
+            prefixLength = length;
+        }
+        length = prefixLength;
+        int millisOfDay = (int) (local - epochDay * MILLIS_PER_DAY);
+        for (int i = dayFieldCount; i < fields.length; i++) {
+            putField(i, millis, millisOfDay);
+        }
+    }
+
+    // the offset at millis and the span until the transitions around it
+    private void findOffset(long millis) {
+        Instant instant = Instant.ofEpochMilli(millis);
+        offsetSeconds = rules.getOffset(instant).getTotalSeconds();
+        // a transition at exactly millis is the one it follows
+        ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1));
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        offsetStart = (previous != null) ? previous.toEpochSecond() * 1000 : Long.MIN_VALUE;
+        offsetEnd = (next != null) ? next.toEpochSecond() * 1000 : Long.MAX_VALUE;
+        if (hasZoneName) {
+            zoneName = TimeZone.getTimeZone(zone).getDisplayName(
+                    rules.isDaylightSavings(instant), TimeZone.SHORT);
+        }
+    }
+
+    // the proleptic Gregorian date of a day since 1970-01-01
+    private void setDay(long epochDay) {
+        long shifted = epochDay + 719468;
+        long era = Math.floorDiv(shifted, 146097);
+        long dayOfEra = shifted - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayFromMarch = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthFromMarch = (5 * dayFromMarch + 2) / 153;
+        day = (int) (dayFromMarch - (153 * monthFromMarch + 2) / 5 + 1);
+        month = (int) ((monthFromMarch < 10) ? monthFromMarch + 3 : monthFromMarch - 9);
+        year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+        boolean isLeap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+        dayOfYear = DAYS_BEFORE_MONTH[month - 1] + day + ((month > 2 && isLeap) ? 1 : 0);
+        // 1970-01-01 was a Thursday
+        weekday = (int) Math.floorMod(epochDay + 3, 7L) + 1;
+    }
+
+    private void putField(int i, long millis, int millisOfDay) {
+        int hour = millisOfDay / 3600000;
+        switch (fields[i]) {
+            case TEXT:
+                putText(texts[i]);
+                break;
+            case YEAR:
+                putNumber(year, 4, '0');
+                break;
+            case YEAR_OF_CENTURY:
+                putNumber(Math.floorMod(year, 100), 2, '0');
+                break;
+            case CENTURY:
+                putNumber(Math.floorDiv(year, 100), 2, '0');
+                break;
+            case MONTH:
+                putNumber(month, 2, '0');
+                break;
+            case MONTH_NAME:
+                putText(monthNames[month - 1]);
+                break;
+            case MONTH_SHORT_NAME:
+                putText(monthShortNames[month - 1]);
+                break;
+            case DAY:
+                putNumber(day, 2, '0');
+                break;
+            case DAY_SPACE_PADDED:
+                putNumber(day, 2, ' ');
+                break;
+            case DAY_OF_YEAR:
+                putNumber(dayOfYear, 3, '0');
+                break;
+            case WEEKDAY:
+                putNumber(weekday, 1, '0');
+                break;
+            case WEEKDAY_FROM_SUNDAY:
+                putNumber(weekday % 7, 1, '0');
+                break;
+            case WEEKDAY_NAME:
+                putText(weekdayNames[weekday % 7 + 1]);
+                break;
+            case WEEKDAY_SHORT_NAME:
+                putText(weekdayShortNames[weekday % 7 + 1]);
+                break;
+            case OFFSET:
+                int minutes = Math.abs(offsetSeconds) / 60;
+                put((offsetSeconds < 0) ? '-' : '+');
+                putNumber(minutes / 60, 2, '0');
+                putNumber(minutes % 60, 2, '0');
+                break;
+            case ZONE_NAME:
+                putText(zoneName);
+                break;
+            case HOUR:
+                putNumber(hour, 2, '0');
+                break;
+            case HOUR_SPACE_PADDED:
+                putNumber(hour, 2, ' ');
+                break;
+            case HOUR_12:
+                putNumber((hour % 12 == 0) ? 12 : hour % 12, 2, '0');
+                break;
+            case HOUR_12_SPACE_PADDED:
+                putNumber((hour % 12 == 0) ? 12 : hour % 12, 2, ' ');
+                break;
+            case MINUTE:
+                putNumber(millisOfDay / 60000 % 60, 2, '0');
+                break;
+            case SECOND:
+                putNumber(millisOfDay / 1000 % 60, 2, '0');
+                break;
+            case AM_PM:
+                putText(amPm[(hour < 12) ? 0 : 1]);
+                break;
+            case EPOCH_SECONDS:
+                putNumber(Math.floorDiv(millis, 1000), 1, '0');
+                break;
+            default:
+                break;
+        }
+    }
+
+    // at least width digits, padded in front
+    private void putNumber(long value, int width, char pad) {
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < width; i++) {
+            put(pad);
+        }
+        ensureCapacity(length + digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void putText(String text) {
+        ensureCapacity(length + text.length());
+        text.getChars(0, text.length(), buffer, length);
+        length += text.length();
+    }
+
+    private void put(char c) {
+        ensureCapacity(length + 1);
+        buffer[length++] = c;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            char[] grown = new char[Math.max(capacity, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+            view = CharBuffer.wrap(buffer);
+        }
+    }
+
+    private static void compile(String pattern, List<Integer> fields, List<String> texts,
+            StringBuilder text) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '%') {
+                text.append(c);
+                continue;
+            }
+            if (++i == pattern.length()) {
+                throw new IllegalArgumentException("pattern ends with %");
+            }
+            char conversion = pattern.charAt(i);
+            switch (conversion) {
+                case '%':
+                    text.append('%');
+                    continue;
+                case 'n':
+                    text.append('\n');
+                    continue;
+                case 't':
+                    text.append('\t');
+                    continue;
+                case 'D':
+                    compile("%m/%d/%y", fields, texts, text);
+                    continue;
+                case 'F':
+                    compile("%Y-%m-%d", fields, texts, text);
+                    continue;
+                case 'R':
+                    compile("%H:%M", fields, texts, text);
+                    continue;
+                case 'T':
+                    compile("%H:%M:%S", fields, texts, text);
+                    continue;
+                case 'r':
+                    compile("%I:%M:%S %p", fields, texts, text);
+                    continue;
+                default:
+                    break;
+            }
+            int field = getField(conversion);
+            if (field < 0) {
+                throw new IllegalArgumentException("unknown conversion %" + conversion);
+            }
+            addText(fields, texts, text);
+            fields.add(field);
+            texts.add(null);
+        }
+    }
+
+    private static void addText(List<Integer> fields, List<String> texts, StringBuilder text) {
+        if (text.length() > 0) {
+            fields.add(TEXT);
+            texts.add(text.toString());
+            text.setLength(0);
+        }
+    }
+
+    private static int getField(char conversion) {
+        switch (conversion) {
+            case 'Y': return YEAR;
+            case 'y': return YEAR_OF_CENTURY;
+            case 'C': return CENTURY;
+            case 'm': return MONTH;
+            case 'B': return MONTH_NAME;
+            case 'b':
+            case 'h': return MONTH_SHORT_NAME;
+            case 'd': return DAY;
+            case 'e': return DAY_SPACE_PADDED;
+            case 'j': return DAY_OF_YEAR;
+            case 'u': return WEEKDAY;
+            case 'w': return WEEKDAY_FROM_SUNDAY;
+            case 'A': return WEEKDAY_NAME;
+            case 'a': return WEEKDAY_SHORT_NAME;
+            case 'z': return OFFSET;
+            case 'Z': return ZONE_NAME;
+            case 'H': return HOUR;
+            case 'k': return HOUR_SPACE_PADDED;
+            case 'I': return HOUR_12;
+            case 'l': return HOUR_12_SPACE_PADDED;
+            case 'M': return MINUTE;
+            case 'S': return SECOND;
+            case 'p': return AM_PM;
+            case 's': return EPOCH_SECONDS;
+            default: return -1;
+        }
+    }
+}
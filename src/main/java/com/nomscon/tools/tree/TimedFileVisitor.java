@@ -0,0 +1,74 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Times the file walk for --stats. The walk opens a directory and stats its
+ * entries between the callbacks, so the time spent outside of them counts
+ * as reading the directory that is open, stats included.
+ */
+final class TimedFileVisitor implements FileVisitor<Path> {
+    private final FileVisitor<Path> target;
+    private final TreeStats stats;
+    // time spent reading each open dir, by depth
+    private long[] dirNanos = new long[16];
+    private int depth = 0;
+    private long mark = System.nanoTime();
+
+    TimedFileVisitor(FileVisitor<Path> target, TreeStats stats) {
+        this.target = target;
+        this.stats = stats;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        walked();
+        if (depth == dirNanos.length) {
+            dirNanos = Arrays.copyOf(dirNanos, depth * 2);
+        }
+        dirNanos[depth++] = 0;
+        FileVisitResult result = target.preVisitDirectory(dir, attrs);
+        if (result != FileVisitResult.CONTINUE) {
+            // skipped, so it is not read and not exited
+            depth--;
+        }
+        return resume(result);
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        walked();
+        return resume(target.visitFile(file, attrs));
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+        walked();
+        return resume(target.visitFileFailed(file, exc));
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        walked();
+        depth--;
+        stats.recordDirRead(dir, dirNanos[depth]);
+        return resume(target.postVisitDirectory(dir, exc));
+    }
+
+    private void walked() {
+        long now = System.nanoTime();
+        if (depth > 0) {
+            dirNanos[depth - 1] += now - mark;
+        }
+    }
+
+    private FileVisitResult resume(FileVisitResult result) {
+        mark = System.nanoTime();
+        return result;
+    }
+}
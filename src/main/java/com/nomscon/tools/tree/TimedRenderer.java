@@ -0,0 +1,75 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Times the events of another renderer for --stats. Writing to the sink
+ * is part of rendering, so a blocked output shows up here.
+ */
+final class TimedRenderer implements TreeRenderer {
+    private final TreeRenderer target;
+    private final TreeStats.Histogram render;
+
+    TimedRenderer(TreeRenderer target, TreeStats stats) {
+        this.target = target;
+        this.render = stats.getRender();
+    }
+
+    @Override
+    public void startTree() {
+        long start = System.nanoTime();
+        target.startTree();
+        render.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void enterDir(DirEntry dir, int level, boolean isLast, boolean exceedsLimit, String change) {
+        long start = System.nanoTime();
+        target.enterDir(dir, level, isLast, exceedsLimit, change);
+        render.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void file(DirEntry file, int level, boolean isLast, String change, String digest) {
+        long start = System.nanoTime();
+        target.file(file, level, isLast, change, digest);
+        render.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void failed(Path path, int level, boolean isLast, IOException ex) {
+        long start = System.nanoTime();
+        target.failed(path, level, isLast, ex);
+        render.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void repeatedDir(DirEntry dir, int level, boolean isLast, Path linkTarget) {
+        long start = System.nanoTime();
+        target.repeatedDir(dir, level, isLast, linkTarget);
+        render.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void exitDir(DirEntry dir, int level, long usage) {
+        long start = System.nanoTime();
+        target.exitDir(dir, level, usage);
+        render.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void report(int dirCount, int fileCount, int failedCount, int timedOutCount,
+            long usage) {
+        long start = System.nanoTime();
+        target.report(dirCount, fileCount, failedCount, timedOutCount, usage);
+        render.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void endTree() {
+        long start = System.nanoTime();
+        target.endTree();
+        render.record(System.nanoTime() - start);
+    }
+}
@@ -1,31 +1,55 @@
 package com.nomscon.tools.tree;
 
-import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
-import java.nio.file.FileVisitOption;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.EnumSet;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+/**
+ * The command line. Parses the arguments into {@link TreeOptions}, lists
+ * the tree with a {@link TreeWalker} and renders it in the chosen format.
+ */
 final class Tree {
     private final int OK = 0;
     private final int ERROR = 1;
     
-    private int dirCount = 0;
-    private int fileCount = 0;
-    
     private TreeConfig config = null;
-    private boolean isLastTopLevelDir = false;
+    private TreeWatcher watcher = null;
+    
+    // the totals of the last listing
+    private TreeSummary summary = null;
 
     public int run(String[] args)
+    {
+        int result = ERROR;
+        try {
+            result = runTree(args);
+        } finally {
+            OutputSink sink = Log.getSink();
+            sink.close();
+            if (sink.checkError()) {
+                System.err.println("ERROR: unable to write the listing");
+                result = ERROR;
+            }
+        }
+        return result;
+    }
+    
+    // the timings of the last run with --stats, null without
+    public TreeStats getStats() {
+        return (summary != null) ? summary.getStats() : null;
+    }
+    
+    private int runTree(String[] args)
     {
         try {
             config = new TreeConfig(args);
@@ -34,6 +58,16 @@ final class Tree {
             return ERROR;
         }
         
+        String outputPath = config.getOutputPath();
+        if (outputPath != null) {
+            try {
+                Log.setSink(ChannelSink.forFile(Paths.get(outputPath)));
+            } catch (IOException | InvalidPathException ex) {
+                Log.println("ERROR: unable to write to " + outputPath + ": " + ex.getMessage());
+                return ERROR;
+            }
+        }
+        
         if (config.needsHelp()) {
             printHelp();
             return OK;
@@ -43,252 +77,264 @@ final class Tree {
             return OK;
         }
         
-        //printTree();
-        
-        // TODO: try with walkFileTree
-        
-        EnumSet<FileVisitOption> options;
-        // if (config.followSymLinks
-        options = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
-        // else
-        options = EnumSet.noneOf(FileVisitOption.class);
-
-        PrintTreeFileVisitor visitor = new PrintTreeFileVisitor();
-        String startDirPath = config.getStartDirPath();
-        File baseDir = new File(startDirPath);
-        
-        // TODO: fix tildes in path
-        
-        Path startDir = Paths.get("c:\\dev\\java");
-        
+        TreeOptions options;
+        Path startDir;
         try {
-            Files.walkFileTree(startDir, options, Integer.MAX_VALUE, visitor);
-        } catch (Exception e) {
-            println(e.toString());
+            options = createOptions();
+            startDir = Paths.get(config.getStartDirPath());
+        } catch (IllegalArgumentException ex) {
+            // InvalidPathException included
+            printError(ex.getMessage());
+            return ERROR;
         }
-        
-        if (!config.skipSummaryReport()) {
-            println();
-            printSummary();
-            int dCount = visitor.getTotalDirCount();
-            int fCount = visitor.getTotalFileCount();
-            println(" %s director%s%s", 
-                dCount, 
-                (dCount == 1) ? "y" : "ies",
-                config.includeOnlyDirs()
-                        ? ""
-                        : String.format(", %s file%s",
-                                fCount,
-                                (fCount == 1) ? "" : "s"));
-
+        if (config.isBatch()) {
+            try (TreeWalker walker = new TreeWalker(options)) {
+                return listTrees(walker, config.getStartDirPaths());
+            }
+        }
+        try (TreeWalker walker = new TreeWalker(options)) {
+            if (config.watchForChanges() && ArchiveTree.isArchive(startDir)) {
+                Log.println("ERROR: unable to watch " + startDir + ": it is an archive");
+                return ERROR;
+            }
+            if (config.watchForChanges()) {
+                try {
+                    watcher = new TreeWatcher(config, startDir, options.followLinks());
+                } catch (IOException ex) {
+                    Log.println("ERROR: unable to watch " + startDir + ": " + ex.getMessage());
+                    return ERROR;
+                }
+            }
+            int result = listTree(walker, startDir, createRenderer(config));
+            if (result == OK && watcher != null) {
+                Log.flush();
+                watcher.watch();
+            }
+            return result;
         }
-
-        return OK;
     }
     
-    static void print(Object value) { System.out.print(value.toString()); }
-    static void print(String value) { System.out.print(value); }
-    static void print(String format, Object... args) {
-        System.out.print(String.format(format, args));
-    }
-
-    static void println() { System.out.println(); }
-    static void println(Object value) { System.out.println(value.toString()); }
-    static void println(String value) { System.out.println(value); }
-    static void println(String format, Object... args) {
-        System.out.println(String.format(format, args));
+    private TreeOptions createOptions() {
+        return TreeOptions.builder()
+                // always the sorted printer, so that options which only change
+                // how the tree is read do not change what is printed
+                .sorted(true)
+                .maxDepth(config.getMaxDepth())
+                .fileLimit(config.getFileLimit())
+                .threads(config.getThreadCount())
+                .memoryLimit(config.getMemoryLimit())
+                .readTimeout(config.getReadTimeout())
+                .retries(config.getRetryCount())
+                .includeAll(config.includeAll())
+                .dirsOnly(config.includeOnlyDirs())
+                .prune(config.excludeEmptyDirs())
+                .diskUsage(config.showDiskUsage())
+                .sortBy(config.getSortOrder())
+                .dirsFirst(config.listDirsFirst())
+                .firstFiles(config.getFirstFileCount())
+                .followLinks(config.followLinks())
+                .oneFileSystem(config.stayOnFileSystem())
+                .include(config.getIncludePatterns())
+                .exclude(config.getExcludePatterns())
+                .index(toPath(config.getIndexPath()))
+                .compareWith(toPath(config.getComparePath()))
+                .hash(config.getHashName())
+                .hashCache(toPath(config.getHashCachePath()))
+                .stats(config.showStats())
+                .build();
     }
     
-    private class DirInfo {
-        private int curDirCount = 0;
-        private final int subDirCount;
-        
-        public DirInfo(int subDirCount) {
-            curDirCount = 1;    // TODO: or 0 and then increment in code ???
-            this.subDirCount = subDirCount;
-        }
-        
-        public void incrDirCount() { curDirCount++; }
-        
-        public boolean isLastDir() {
-            return curDirCount == subDirCount;
-        }
+    private static Path toPath(String path) {
+        return (path != null) ? Paths.get(path) : null;
     }
     
-    private class PrintTreeFileVisitor extends SimpleFileVisitor<Path> {
-        private int curDepth = 0;
-        private int dirFileCount = 0;
-        
-        private int totalDirCount = 0;
-        private int totalFileCount = 0;
-        
-        private File[] files;
-
-        private Stack<DirInfo> subDirInfoStack = new Stack<>();
-        
-        private void printIndent(boolean isLast) {
-            int lastDepthIndex = curDepth - 1;
-            for (int i = 0; i < curDepth; i++) {
-                print((i != lastDepthIndex)
-                        ? "|   "
-                        : isLast
-                                ? "`-- "
-                                : "|-- ");
-            }
-        }
-        
-        public int getTotalDirCount() { return totalDirCount; }
-        public int getTotalFileCount() { return totalFileCount; }
-        
-        @Override
-        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-            throws IOException
-        {
-            if (curDepth > 0) {
-                printIndent(false);     // TODO: determine last dir
-                println(dir.getFileName() + File.separator);
-                totalDirCount++;
-            }
-            curDepth++;
-            files = dir.toFile().listFiles(new FileFilter() {
+    // several roots are listed at once on a pool, each into a spool of its
+    // own; the spools are copied out in the order the roots were given, as
+    // soon as each one and those before it are done, and a root that cannot
+    // be listed only fails its own section
+    private int listTrees(final TreeWalker walker, List<String> roots) {
+        int threadCount = (config.getThreadCount() > 0)
+                ? config.getThreadCount()
+                : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threadCount, roots.size()),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, "tree-root");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        List<Future<Section>> sections = new ArrayList<>(roots.size());
+        for (final String root : roots) {
+            sections.add(pool.submit(new Callable<Section>() {
                 @Override
-                public boolean accept(File file) {
-                    return file.isFile();
+                public Section call() {
+                    return listSection(walker, config.forRoot(root));
                 }
-            });
-            dirFileCount = files.length;
-            // TODO: determine if sort is needed
-//            if (dirFileCount > 0)
-//                Arrays.sort(files);
-            return FileVisitResult.CONTINUE;
-        }
-        
-        @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-            throws IOException
-        {
-            return FileVisitResult.CONTINUE;
+            }));
         }
-        
-        @Override
-        public FileVisitResult visitFileFailed(Path file, IOException exc)
-            throws IOException
-        {
-            File f = file.toFile();
-            boolean isDir = f.isDirectory();
-            if (isDir) {
-                totalDirCount++;
-            } else {
-                totalFileCount++;
+        int failedCount = 0;
+        int dirCount = 0;
+        int fileCount = 0;
+        int unreadCount = 0;
+        int timedOutCount = 0;
+        long usage = 0;
+        int copiedCount = 0;
+        try {
+            OutputSink out = Log.getSink();
+            for (Future<Section> future : sections) {
+                Section section = future.get();
+                copiedCount++;
+                if (section.spool != null) {
+                    try {
+                        section.spool.copyTo(out);
+                    } finally {
+                        section.spool.close();
+                    }
+                }
+                if (section.summary == null) {
+                    failedCount++;
+                    continue;
+                }
+                dirCount += section.summary.getDirectoryCount();
+                fileCount += section.summary.getFileCount();
+                unreadCount += section.summary.getFailedCount();
+                timedOutCount += section.summary.getTimedOutCount();
+                usage += section.summary.getUsage();
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            Log.println("ERROR: listing interrupted");
+            return ERROR;
+        } finally {
+            List<Runnable> unstarted = pool.shutdownNow();
+            // the sections that were started and not copied out hold temp files
+            for (Future<Section> future : sections.subList(copiedCount, sections.size())) {
+                if (!unstarted.contains(future)) {
+                    discard(future);
+                }
             }
-
-            printIndent(false);     // TODO: determine isLast
-            println("%s - Failed: %s", file.getFileName(), exc.getClass().getSimpleName());
-            
-            return isDir ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
         }
-
-        @Override
-        public FileVisitResult postVisitDirectory(Path dir, IOException exc)
-            throws IOException
-        {
-            printFiles();
-            curDepth--;
-            return FileVisitResult.CONTINUE;
-            // println("[%d|%d|%d]post: %s", curDepth, totalFileCount, totalDirCount, dir.toFile().getName());
+        if (!config.skipSummaryReport()) {
+            TreeRenderer renderer = createRenderer(config);
+            renderer.report(dirCount, fileCount, unreadCount, timedOutCount, usage);
+            if (failedCount > 0 && config.outputAsText()) {
+                Log.println(" " + failedCount + " of " + roots.size() + " roots could not be listed");
+            }
         }
-        
-        // TODO: can call if dirs of files first
-        private void printFiles() {
-            if (dirFileCount > 0) {
-                for (int i = 0; i < dirFileCount; i++) {
-                    File file = files[i];
-                    printIndent(dirFileCount == (i + 1));
-                    println(file.getName());
+        return (failedCount == 0) ? OK : ERROR;
+    }
+    
+    // waits for a section that was started, so its spool is closed and deleted
+    private static void discard(Future<Section> future) {
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                try {
+                    Section section = future.get();
+                    if (section.spool != null) {
+                        section.spool.close();
+                    }
+                    return;
+                } catch (InterruptedException ex) {
+                    isInterrupted = true;
+                } catch (ExecutionException ex) {
+                    // failed before its spool was handed back
+                    return;
                 }
-                totalFileCount += dirFileCount;
+            }
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
             }
         }
     }
     
-    private int getDirCount() {
-        return dirCount;
-    }
-
-    private int getFileCount() {
-        return fileCount;
-    }
-
-    private String getShortVersion(String versionString) {
-        if (versionString == null || versionString.isEmpty())
-            versionString = "0.0.0";
-        // TODO: semver
-        //Version semver = Version.valueOf(versionString);
-        //return semver.getNormalVersion();
-        return AppInfo.getVersion();
-    }
-
-    private int incDirCount(int incAmount) {
-        if (incAmount < 0) {
-            return dirCount;
+    // on a pool thread, with Log writing to the section's spool
+    private Section listSection(TreeWalker walker, TreeConfig rootConfig) {
+        Section section = new Section();
+        String root = rootConfig.getStartDirPath();
+        try {
+            section.spool = ChannelSink.forTempFile();
+        } catch (IOException ex) {
+            System.err.println("ERROR: unable to create a temp file for " + root + ": " + ex.getMessage());
+            return section;
         }
-        return dirCount += incAmount;
+        Log.setThreadSink(section.spool);
+        try {
+            Path startDir = Paths.get(root);
+            TreeRenderer renderer = createRenderer(rootConfig);
+            renderer.startTree();
+            TreeSummary summary = walker.walk(startDir, renderer, null);
+            renderer.endTree();
+            for (String warning : summary.getWarnings()) {
+                System.err.println("WARNING: " + root + ": " + warning);
+            }
+            if (summary.getStats() != null) {
+                printStats(summary.getStats());
+            }
+            section.summary = summary;
+        } catch (NotDirectoryException ex) {
+            Log.println("ERROR: not a directory: " + root);
+        } catch (IOException | RuntimeException ex) {
+            // InvalidPathException included
+            Log.println("ERROR: unable to list " + root + ": " + ex.getMessage());
+        } finally {
+            Log.setThreadSink(null);
+        }
+        return section;
     }
-
-    private int incFileCount(int incAmount) {
-        if (incAmount < 0) {
-            return fileCount;
+    
+    private TreeRenderer createRenderer(TreeConfig config) {
+        if (config.outputAsJson()) {
+            return new JsonRenderer(config);
+        }
+        if (config.outputAsNdjson()) {
+            return new NdjsonRenderer(config);
         }
-        return fileCount += incAmount;
+        if (config.outputAsXml()) {
+            return new XmlRenderer(config);
+        }
+        return new TextRenderer(config);
     }
-
-    private void printDir(File dir, int level, boolean isLastDir) {
-        int nextLevel = level + 1;
-        if (level > 0) {
-            incDirCount(1);
-            if (!config.skipIndent()) {
-                printIndent(level);
-                Log.print(isLastDir ? "`-- " : "|-- ");
-            }
-            Log.println(config.includeFullPath() 
-                    ? dir.getAbsolutePath()
-                    : dir.getName());
+    
+    private int listTree(TreeWalker walker, Path startDir, TreeRenderer renderer)
+    {
+        renderer.startTree();
+        try {
+            summary = walker.walk(startDir, renderer, watcher);
+        } catch (NotDirectoryException ex) {
+            Log.println("ERROR: not a directory: " + startDir);
+            return ERROR;
+        } catch (IOException ex) {
+            Log.println("ERROR: unable to list " + startDir + ": " + ex.getMessage());
+            return ERROR;
         }
-        
-        if (!config.includeOnlyDirs()) {
-            FileFilter fileFilter = (config.includeAll())
-                    ? new IsFileFilter()
-                    : new IsVisibleFileFilter();
-            File[] files = dir.listFiles(fileFilter);
-            if (files != null && files.length > 0) {
-                Arrays.sort(files);
-                int lastIndex = files.length - 1;
-                for (int i = 0; i <= lastIndex; i++) {
-                    incFileCount(1);
-                    printFile(files[i], nextLevel, i == lastIndex);
-                }
-            }
+        for (String warning : summary.getWarnings()) {
+            System.err.println("WARNING: " + warning);
         }
-        
-        // TODO: handle config.excludeEmptyDirs()
-        // TODO: handle config.listDirsFirst();
-        
-        FileFilter dirFilter = (config.includeAll())
-                ? new IsDirFilter()
-                : new IsVisibleDirFilter();
-        File[] subDirs = dir.listFiles(dirFilter);
-        if (subDirs != null && subDirs.length > 0) {
-            Arrays.sort(subDirs);
-            int lastIndex = subDirs.length - 1;
-            for (int i = 0; i <= lastIndex; i++) {
-                if (nextLevel == 1 && i == lastIndex) {
-                    isLastTopLevelDir = true;
-                }
-                printDir(subDirs[i], nextLevel, i == lastIndex);
-            }
+        if (!config.skipSummaryReport()) {
+            renderer.report(summary.getDirectoryCount(), summary.getFileCount(),
+                    summary.getFailedCount(), summary.getTimedOutCount(), summary.getUsage());
+        }
+        renderer.endTree();
+        if (summary.getStats() != null) {
+            printStats(summary.getStats());
+        }
+        return OK;
+    }
+    
+    // after the summary of a text listing, on stderr for the other formats
+    private void printStats(TreeStats stats) {
+        if (config.outputAsText()) {
+            stats.print(Log.getSink());
+            return;
         }
+        OutputSink err = ChannelSink.forStderr();
+        stats.print(err);
+        err.close();
     }
-
+    
     private void printError(String errorMessage) {
         printHeader();
         if (errorMessage != null && !errorMessage.isEmpty()) {
@@ -298,30 +344,8 @@ final class Tree {
         printUsage();
     }
     
-    private void printFile(File file, int level, boolean isLast) {
-        if (!config.skipIndent()) {
-            printIndent(level);
-            Log.print(isLast ? "`-- " : "|-- ");
-        }
-        Log.print(config.includeFullPath() 
-                ? file.getAbsolutePath()
-                : file.getName());
-        
-        if (config.includeLastModifiedDate())
-            Log.print(" [" + new SimpleDateFormat("yyyy-MM-dd").format(file.lastModified()) + "]");
-        if (config.includeFileSize()) {
-            // TODO:
-            Log.print(" " + file.length());
-        } else if (config.includeFileSizeInBytes()) {
-            // TODO: format with commas or localized period?
-            Log.print(" " + file.length() + " bytes");
-        }
-        
-        Log.println();
-    }
-    
     private void printHeader() {
-        Log.println(AppInfo.getTitle() + " - Version " + getShortVersion(AppInfo.getVersion()));
+        Log.println(AppInfo.getTitle() + " - Version " + AppInfo.getVersion());
         Log.println(AppInfo.getCopyright());
         Log.println(AppInfo.getDescription());
         Log.println();
@@ -332,79 +356,13 @@ final class Tree {
         printUsage();
     }
     
-    private void printIndent(int level) {
-        if (level < 1) {
-            return;
-        }
-        for (int i = 1; i < level; i++) {
-            //Log.print((i == 1 && !isLastTopLevelDir) ? "| " : "   ");
-            //Log.print((i == 1) ? "| " : "   ");
-            Log.print("| ");
-        }
-    }
-
-    private void printSummary() {
-        Log.println(String.format(" %s director%s%s", 
-                dirCount, 
-                (dirCount == 1) ? "y" : "ies",
-                config.includeOnlyDirs()
-                        ? ""
-                        : String.format(", %s file%s",
-                                fileCount,
-                                (fileCount == 1) ? "" : "s")));
-    }
-
-    private void printTree() {
-        String startDirPath = config.getStartDirPath();
-        File baseDir = new File(startDirPath);
-        Log.println(baseDir.getName());
-        
-        if (baseDir.isDirectory()) {
-            printDir(baseDir, 0, false);
-        }
-        
-        if (!config.skipSummaryReport()) {
-            Log.println();
-            printSummary();
-        }
-    }
-
     private void printUsage() {
         TreeConfig.printUsage();
     }
     
-    class IsDirFilter implements FileFilter {
-
-        @Override
-        public boolean accept(File pathname) {
-            return pathname != null && pathname.isDirectory();
-        }
+    // the output of one root and its totals, null when it could not be listed
+    private static final class Section {
+        ChannelSink spool = null;
+        TreeSummary summary = null;
     }
-    
-    // ------------------------------------------------------------
-    
-    class IsFileFilter implements FileFilter {
-
-        @Override
-        public boolean accept(File pathname) {
-            return pathname != null && pathname.isFile();
-        }
-    }
-    
-    class IsVisibleDirFilter extends IsDirFilter implements FileFilter {
-
-        @Override
-        public boolean accept(File pathname) {
-            return super.accept(pathname) && !pathname.isHidden();
-        }
-    }
-    
-    class IsVisibleFileFilter extends IsFileFilter implements FileFilter {
-
-        @Override
-        public boolean accept(File pathname) {
-            return super.accept(pathname) && !pathname.isHidden();
-        }
-    }
-
 }
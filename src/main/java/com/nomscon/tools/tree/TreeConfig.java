@@ -1,45 +1,280 @@
 package com.nomscon.tools.tree;
 
+import java.io.BufferedReader;
 import java.io.File;
-import org.apache.commons.cli.*;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
 
 final class TreeConfig 
 {
-    private final static Options options;
-    private final CommandLine cmdLine;
+    private final static ArgParser options;
+    private final ArgParser.CommandLine cmdLine;
 
     private String startDirPath;
+    private List<String> startDirPaths;
+    private int threadCount = 0;
+    private int memoryLimit = 0;
+    private int readTimeout = 0;
+    private int retryCount = 0;
+    private int maxDepth = 0;
+    private int fileLimit = 0;
+    private int firstFileCount = 0;
+    private int debounceMillis = 300;
+    private String timeFormat = TimeFormat.DEFAULT_PATTERN;
+    private boolean isBatch = false;
+    private NameMatcher includePatterns = null;
+    private NameMatcher excludePatterns = null;
     
     static {
-        options = new Options();
+        options = new ArgParser();
         defineOptions();
     }
 
     public TreeConfig(String[] args) throws UsageException {
-        try {
-            CommandLineParser parser = new PosixParser();
-            cmdLine = parser.parse(options, args);
-            
-            String curDir = includeFullPath()
-                    ? System.getProperty("user.dir")
-                    : "."; 
-            
-            // TODO: limit to only one additional arg for the startDirPath
-            String[] nonOptionArgs = cmdLine.getArgs();
-            startDirPath = (nonOptionArgs.length == 0) 
+        cmdLine = options.parse(args);
+        
+        String curDir = includeFullPath()
+                ? System.getProperty("user.dir")
+                : "."; 
+        
+        String[] nonOptionArgs = cmdLine.getArgs();
+        startDirPaths = new ArrayList<>(Arrays.asList(nonOptionArgs));
+        String rootsPath = cmdLine.getOptionValue(AppOption.ROOTS_LONG);
+        if (rootsPath != null) {
+            List<String> roots = readRoots(rootsPath);
+            if (roots.isEmpty()) {
+                throw new UsageException("no roots in " + rootsPath, null);
+            }
+            startDirPaths.addAll(roots);
+        }
+        if (startDirPaths.size() <= 1) {
+            startDirPath = startDirPaths.isEmpty() 
                     ? curDir
-                    : nonOptionArgs[0];
+                    : startDirPaths.get(0);
             File f = new File(startDirPath);
             // TODO: consider error if specified dir doesn't exist
             if (!f.exists())
                 startDirPath = curDir;
-        } catch (ParseException ex) {
-            throw new UsageException(ex.getMessage(), ex);
+            startDirPaths = Collections.singletonList(startDirPath);
+        } else {
+            // each root that cannot be listed fails on its own
+            startDirPath = startDirPaths.get(0);
+            startDirPaths = Collections.unmodifiableList(startDirPaths);
+            if (outputAsJson() || outputAsXml()) {
+                throw new UsageException("several roots need text or --ndjson output", null);
+            }
+            if (getComparePath() != null || getIndexPath() != null || watchForChanges()) {
+                throw new UsageException(
+                        "--compare, --index and --watch take a single root", null);
+            }
+        }
+        
+        int formatCount = (outputAsJson() ? 1 : 0)
+                + (outputAsNdjson() ? 1 : 0)
+                + (outputAsXml() ? 1 : 0);
+        if (formatCount > 1) {
+            throw new UsageException("only one of -J, -X and --ndjson can be given", null);
+        }
+        if (watchForChanges() && (outputAsJson() || outputAsXml())) {
+            throw new UsageException("--watch needs text or --ndjson output", null);
+        }
+        String comparePath = getComparePath();
+        if (comparePath != null) {
+            if (!new File(comparePath).isDirectory()
+                    && !ArchiveTree.isArchive(new File(comparePath).toPath())) {
+                throw new UsageException("not a directory or archive: " + comparePath, null);
+            }
+            if (showDiskUsage() || getIndexPath() != null || watchForChanges()
+                    || cmdLine.hasOption(AppOption.MEMORY_LIMIT_LONG)) {
+                throw new UsageException(
+                        "--compare cannot be combined with --du, --index, --memlimit or --watch", null);
+            }
+        }
+        int sortOptionCount = (cmdLine.hasOption(AppOption.SORT_BY_TIME) ? 1 : 0)
+                + (cmdLine.hasOption(AppOption.SORT_BY_SIZE) ? 1 : 0)
+                + (cmdLine.hasOption(AppOption.SORT_BY_VERSION) ? 1 : 0)
+                + (cmdLine.hasOption(AppOption.SORT_LONG) ? 1 : 0);
+        if (sortOptionCount > 1) {
+            throw new UsageException("only one of -t, -S, -v and --sort can be given", null);
+        }
+        String sortOrder = getSortOrder();
+        if (sortOrder != null && !EntryOrder.isSupported(sortOrder)) {
+            throw new UsageException("unknown sort order: " + sortOrder
+                    + ", use name, mtime, size, version or locale", null);
+        }
+        if (cmdLine.hasOption(AppOption.TOP_LONG)) {
+            firstFileCount = parsePositiveInt(AppOption.TOP_LONG);
+        }
+        if (comparePath != null && ((sortOrder != null && !EntryOrder.NAME.equals(sortOrder))
+                || firstFileCount > 0)) {
+            throw new UsageException("--compare lists every file by name, "
+                    + "it cannot be combined with -t, -S, -v, --sort or --top", null);
+        }
+        String hashName = getHashName();
+        if (hashName != null && !ContentHash.isSupported(hashName)) {
+            throw new UsageException("unknown hash: " + hashName
+                    + ", use sha256, xxh64 or crc32c", null);
+        }
+        if (getHashCachePath() != null && hashName == null) {
+            throw new UsageException("--hashcache needs --hash", null);
+        }
+        if (cmdLine.hasOption(AppOption.TIME_FORMAT_LONG)) {
+            timeFormat = cmdLine.getOptionValue(AppOption.TIME_FORMAT_LONG);
+            try {
+                TimeFormat.compile(timeFormat);
+            } catch (IllegalArgumentException ex) {
+                throw new UsageException("invalid --timefmt: " + ex.getMessage(), ex);
+            }
+        }
+        if (cmdLine.hasOption(AppOption.DEBOUNCE_LONG)) {
+            debounceMillis = parsePositiveInt(AppOption.DEBOUNCE_LONG);
+        }
+        if (cmdLine.hasOption(AppOption.THREADS_LONG)) {
+            threadCount = parsePositiveInt(AppOption.THREADS_LONG);
+        }
+        if (cmdLine.hasOption(AppOption.MAX_DEPTH)) {
+            maxDepth = parsePositiveInt(AppOption.MAX_DEPTH);
+        }
+        if (cmdLine.hasOption(AppOption.FILE_LIMIT_LONG)) {
+            fileLimit = parsePositiveInt(AppOption.FILE_LIMIT_LONG);
+        }
+        try {
+            includePatterns = NameMatcher.compile(cmdLine.getOptionValues(AppOption.INCLUDE_PATTERN));
+            excludePatterns = NameMatcher.compile(cmdLine.getOptionValues(AppOption.EXCLUDE_PATTERN));
+        } catch (PatternSyntaxException ex) {
+            throw new UsageException("invalid pattern: " + ex.getPattern(), ex);
+        }
+        if (cmdLine.hasOption(AppOption.MEMORY_LIMIT_LONG)) {
+            memoryLimit = parsePositiveInt(AppOption.MEMORY_LIMIT_LONG);
         }
+        if (cmdLine.hasOption(AppOption.TIMEOUT_LONG)) {
+            readTimeout = parsePositiveInt(AppOption.TIMEOUT_LONG);
+        }
+        if (cmdLine.hasOption(AppOption.RETRIES_LONG)) {
+            retryCount = parsePositiveInt(AppOption.RETRIES_LONG);
+        }
+    }
+    
+    // a copy listing root instead, for one of several roots
+    private TreeConfig(TreeConfig config, String root) {
+        this.cmdLine = config.cmdLine;
+        this.startDirPath = root;
+        this.startDirPaths = Collections.singletonList(root);
+        this.threadCount = config.threadCount;
+        this.memoryLimit = config.memoryLimit;
+        this.readTimeout = config.readTimeout;
+        this.retryCount = config.retryCount;
+        this.maxDepth = config.maxDepth;
+        this.fileLimit = config.fileLimit;
+        this.firstFileCount = config.firstFileCount;
+        this.debounceMillis = config.debounceMillis;
+        this.timeFormat = config.timeFormat;
+        this.includePatterns = config.includePatterns;
+        this.excludePatterns = config.excludePatterns;
+        this.isBatch = true;
+    }
+    
+    public TreeConfig forRoot(String root) {
+        return new TreeConfig(this, root);
     }
     
+    // the first root when there are several
     public String getStartDirPath() { return startDirPath; }
     
+    // the roots in the order given, on the command line and then in the --roots file
+    public List<String> getStartDirPaths() { return startDirPaths; }
+    
+    // listing several roots, or one of them
+    public boolean isBatch() {
+        return isBatch || startDirPaths.size() > 1;
+    }
+    
+    // null unless listing the differences to another tree
+    public String getComparePath() {
+        return cmdLine.getOptionValue(AppOption.COMPARE_LONG);
+    }
+    
+    // sha256, xxh64 or crc32c with --hash, null otherwise
+    public String getHashName() {
+        return cmdLine.getOptionValue(AppOption.HASH_LONG);
+    }
+    
+    // null unless digests are kept between runs
+    public String getHashCachePath() {
+        return cmdLine.getOptionValue(AppOption.HASH_CACHE_LONG);
+    }
+    
+    // null unless sorting; -t, -S and -v are short for --sort mtime, size and version
+    public String getSortOrder() {
+        if (cmdLine.hasOption(AppOption.SORT_BY_TIME)) {
+            return EntryOrder.MTIME;
+        }
+        if (cmdLine.hasOption(AppOption.SORT_BY_SIZE)) {
+            return EntryOrder.SIZE;
+        }
+        if (cmdLine.hasOption(AppOption.SORT_BY_VERSION)) {
+            return EntryOrder.VERSION;
+        }
+        return cmdLine.getOptionValue(AppOption.SORT_LONG);
+    }
+    
+    // null unless listing from a snapshot file
+    public String getIndexPath() {
+        return cmdLine.getOptionValue(AppOption.INDEX_FILE_LONG);
+    }
+    
+    // null when output goes to stdout
+    public String getOutputPath() {
+        return cmdLine.getOptionValue(AppOption.OUTPUT_FILE);
+    }
+    
+    // 0 when --threads was not given
+    public int getThreadCount() { return threadCount; }
+    
+    // levels below the start dir to list, 0 when unlimited
+    public int getMaxDepth() { return maxDepth; }
+    
+    // dirs with more entries are not opened, 0 when unlimited
+    public int getFileLimit() { return fileLimit; }
+    
+    // files listed per dir with --top, 0 when unlimited
+    public int getFirstFileCount() { return firstFileCount; }
+    
+    // files must match one of these to be listed, null lists all
+    public NameMatcher getIncludePatterns() { return includePatterns; }
+    
+    // files and dirs matching one of these are not listed or descended into
+    public NameMatcher getExcludePatterns() { return excludePatterns; }
+    
+    // the strftime pattern of the -D dates
+    public String getTimeFormat() { return timeFormat; }
+    
+    // how long --watch waits for a burst of changes to end
+    public int getDebounceMillis() { return debounceMillis; }
+    
+    // entries held in memory per directory before spilling, 0 when not streaming
+    public int getMemoryLimit() { return memoryLimit; }
+    
+    // millis a directory read may take with --timeout, 0 when unlimited
+    public int getReadTimeout() { return readTimeout; }
+    
+    // 0 when --retries was not given
+    public int getRetryCount() { return retryCount; }
+    
     public boolean excludeEmptyDirs() {
         return cmdLine.hasOption(AppOption.NO_EMPTY_DIRS_LONG);
     }
@@ -52,16 +287,20 @@ final class TreeConfig
         return cmdLine.hasOption(AppOption.INCLUDE_SIZE);
     }
 
+    // --du shows the file sizes too, in bytes unless -h was given
     public boolean includeFileSizeInBytes() {
-        return cmdLine.hasOption(AppOption.INCLUDE_SIZE_IN_BYTES);
+        return cmdLine.hasOption(AppOption.INCLUDE_SIZE_IN_BYTES)
+                || (showDiskUsage() && !includeFileSize());
     }
 
     public boolean includeFullPath() {
         return cmdLine.hasOption(AppOption.INCLUDE_FULL_PATH);
     }
     
+    // --timefmt implies -D
     public boolean includeLastModifiedDate() {
-        return cmdLine.hasOption(AppOption.INCLUDE_LAST_MODIFIED_DATE);
+        return cmdLine.hasOption(AppOption.INCLUDE_LAST_MODIFIED_DATE)
+                || cmdLine.hasOption(AppOption.TIME_FORMAT_LONG);
     }
 
     public boolean includeOnlyDirs() {
@@ -73,6 +312,14 @@ final class TreeConfig
         return cmdLine.hasOption(AppOption.DIRS_FIRST_LONG);
     }
     
+    public boolean followLinks() {
+        return cmdLine.hasOption(AppOption.FOLLOW_LINKS);
+    }
+    
+    public boolean stayOnFileSystem() {
+        return cmdLine.hasOption(AppOption.XDEV_LONG);
+    }
+    
     public boolean needsHelp() {
         return cmdLine.hasOption(AppOption.HELP)
                 || cmdLine.hasOption(AppOption.HELP_LONG);
@@ -81,9 +328,50 @@ final class TreeConfig
     public boolean needsVersion() {
         return cmdLine.hasOption(AppOption.VERSION_LONG);
     }
+    
+    // commons-cli is only loaded to format the help
     public static void printUsage() {
+        Options helpOptions = new Options();
+        for (ArgParser.Option option : options.getOptions()) {
+            Option helpOption = new Option(option.opt, option.longOpt, option.hasArg, option.description);
+            helpOption.setArgName(option.argName);
+            helpOptions.addOption(helpOption);
+        }
         HelpFormatter optionsHelp = new HelpFormatter();
-        optionsHelp.printHelp(" ", null, options, null, false);
+        StringWriter usage = new StringWriter();
+        PrintWriter usageWriter = new PrintWriter(usage);
+        optionsHelp.printHelp(usageWriter, optionsHelp.getWidth(), " ", null, helpOptions,
+                optionsHelp.getLeftPadding(), optionsHelp.getDescPadding(), null, false);
+        usageWriter.flush();
+        Log.print(usage.toString());
+    }
+    
+    public boolean outputAsText() {
+        return !outputAsJson() && !outputAsNdjson() && !outputAsXml();
+    }
+    
+    public boolean outputAsJson() {
+        return cmdLine.hasOption(AppOption.JSON);
+    }
+    
+    public boolean outputAsNdjson() {
+        return cmdLine.hasOption(AppOption.NDJSON_LONG);
+    }
+    
+    public boolean outputAsXml() {
+        return cmdLine.hasOption(AppOption.XML);
+    }
+    
+    public boolean showDiskUsage() {
+        return cmdLine.hasOption(AppOption.DISK_USAGE_LONG);
+    }
+    
+    public boolean showStats() {
+        return cmdLine.hasOption(AppOption.STATS_LONG);
+    }
+    
+    public boolean watchForChanges() {
+        return cmdLine.hasOption(AppOption.WATCH_LONG);
     }
     
     public boolean skipIndent() {
@@ -95,36 +383,130 @@ final class TreeConfig
     }
     
     private static void defineOptions() {
-        options.addOption("?", "help", false, "show this usage help");
-        options.addOption(null, "version", false, "display tree version");
+        options.addOption("?", "help", false, null, "show this usage help");
+        options.addOption(null, "version", false, null, "display tree version");
         
-        options.addOption("a", null, false, "list all including hidden files");
-        options.addOption("d", "dirsonly", false, "list only subdirectories, no files");
-        options.addOption("D", null, false, "include last modified date for each file");
-        options.addOption(null, "dirsfirst", false, "list directories before files");
-        options.addOption("f", null, false, "add full path for each file");
-        options.addOption("h", null, false, "include size for each file");
-        options.addOption("i", false, "do not print lines and do not indent");
-        options.addOption(null, "noreport", false, "omit summary at end of listing");
-        options.addOption(null, "prune", false, "exclude empty directories");
-        options.addOption("s", null, false, "include size in bytes for each file");
+        options.addOption("a", null, false, null, "list all including hidden files");
+        addOption(null, "compare", "dir", "mark what was added, removed or changed since dir");
+        options.addOption("d", "dirsonly", false, null, "list only subdirectories, no files");
+        options.addOption("D", null, false, null, "include last modified date for each file");
+        addOption(null, "debounce", "ms", "with --watch, report changes once quiet for ms (300)");
+        options.addOption(null, "du", false, null, "show the total size of each directory");
+        options.addOption(null, "dirsfirst", false, null, "list directories before files");
+        options.addOption("f", null, false, null, "add full path for each file");
+        addOption(null, "filelimit", "#", "do not descend dirs with more than # entries");
+        options.addOption("h", null, false, null, "include size for each file in K, M, G... units");
+        addOption(null, "hash", "alg", "include the content hash of each file: sha256, xxh64 or crc32c");
+        addOption(null, "hashcache", "file", "reuse the hashes in file for files of the same size and time");
+        options.addOption("i", null, false, null, "do not print lines and do not indent");
+        addOption("I", null, "pattern", "do not list files or dirs that match the wildcard pattern");
+        options.addOption("J", null, false, null, "output as JSON");
+        options.addOption("l", null, false, null, "follow links to directories, listing each directory once");
+        addOption("L", null, "level", "descend only level directories deep");
+        addOption(null, "index", "file", "list from a snapshot in file, refreshing changed dirs");
+        addOption(null, "memlimit", "N", "stream directories, holding at most N entries in memory");
+        options.addOption(null, "ndjson", false, null, "output one JSON object per line");
+        options.addOption(null, "noreport", false, null, "omit summary at end of listing");
+        addOption("o", null, "filename", "send output to filename");
+        addOption("P", null, "pattern", "list only files that match the wildcard pattern");
+        options.addOption(null, "prune", false, null, "exclude empty directories");
+        addOption(null, "retries", "N", "read a directory up to N more times on EIO or ESTALE");
+        addOption(null, "roots", "file", "also list the roots in file, one a line, - for stdin");
+        options.addOption("s", null, false, null, "include size in bytes for each file");
+        options.addOption("S", null, false, null, "sort by size, largest first");
+        addOption(null, "sort", "order", "sort by name, mtime, size, version or locale");
+        options.addOption(null, "stats", false, null, "time reading, sorting and printing, after the summary");
+        options.addOption("t", null, false, null, "sort by last modified time, newest first");
+        addOption(null, "threads", "N", "scan directories on N threads");
+        addOption(null, "timefmt", "format", "print dates by a strftime format, implies -D (%Y-%m-%d)");
+        addOption(null, "timeout", "ms", "give up on reading a directory after ms");
+        addOption(null, "top", "N", "list only the first N files of each directory, sorted");
+        options.addOption("v", null, false, null, "sort by version, numbers in names by value");
+        options.addOption(null, "watch", false, null, "keep running and report changes to the tree");
+        options.addOption("X", null, false, null, "output as XML");
+        options.addOption(null, "xdev", false, null, "stay on the file system of the start directory");
+    }
+
+    private static void addOption(String opt, String longOpt, String argName, String description) {
+        options.addOption(opt, longOpt, true, argName, description);
+    }
+
+    // one root a line, "-" reading them from stdin
+    private static List<String> readRoots(String path) throws UsageException {
+        List<String> roots = new ArrayList<>();
+        try (BufferedReader reader = path.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    roots.add(line);
+                }
+            }
+        } catch (IOException | InvalidPathException ex) {
+            throw new UsageException("unable to read roots from " + path + ": " + ex.getMessage(), ex);
+        }
+        return roots;
+    }
+
+    private int parsePositiveInt(String opt) throws UsageException {
+        String value = cmdLine.getOptionValue(opt);
+        try {
+            int n = Integer.parseInt(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException ex) {
+            // fall through to the usage error
+        }
+        String name = (opt.length() == 1) ? "-" + opt : "--" + opt;
+        throw new UsageException("invalid value for " + name + ": " + value, null);
     }
 
     private final static class AppOption {
-        public final static String HELP = "h";
+        public final static String HELP = "?";
         public final static String HELP_LONG = "help";
+        public final static String COMPARE_LONG = "compare";
+        public final static String DEBOUNCE_LONG = "debounce";
         public final static String DIRS_ONLY = "d";
         public final static String DIRS_ONLY_LONG = "dirsonly";
         public final static String DIRS_FIRST_LONG = "dirsfirst";
+        public final static String DISK_USAGE_LONG = "du";
+        public final static String EXCLUDE_PATTERN = "I";
+        public final static String FILE_LIMIT_LONG = "filelimit";
+        public final static String FOLLOW_LINKS = "l";
+        public final static String HASH_LONG = "hash";
+        public final static String HASH_CACHE_LONG = "hashcache";
         public final static String INCLUDE_FULL_PATH = "f";
         public final static String INCLUDE_LAST_MODIFIED_DATE = "D";
         public final static String INCLUDE_SIZE = "h";
+        public final static String INCLUDE_PATTERN = "P";
         public final static String INCLUDE_SIZE_IN_BYTES = "s";
+        public final static String INDEX_FILE_LONG = "index";
+        public final static String JSON = "J";
+        public final static String MAX_DEPTH = "L";
+        public final static String MEMORY_LIMIT_LONG = "memlimit";
+        public final static String NDJSON_LONG = "ndjson";
         public final static String NO_EMPTY_DIRS_LONG = "prune";
         public final static String NO_INDENT = "i";
         public final static String NO_REPORT_LONG = "noreport";
+        public final static String OUTPUT_FILE = "o";
+        public final static String RETRIES_LONG = "retries";
+        public final static String ROOTS_LONG = "roots";
         public final static String SHOW_ALL = "a";
+        public final static String SORT_BY_SIZE = "S";
+        public final static String SORT_BY_TIME = "t";
+        public final static String SORT_BY_VERSION = "v";
+        public final static String SORT_LONG = "sort";
+        public final static String STATS_LONG = "stats";
+        public final static String THREADS_LONG = "threads";
+        public final static String TIME_FORMAT_LONG = "timefmt";
+        public final static String TIMEOUT_LONG = "timeout";
+        public final static String TOP_LONG = "top";
         public final static String VERSION_LONG = "version";
+        public final static String WATCH_LONG = "watch";
+        public final static String XML = "X";
+        public final static String XDEV_LONG = "xdev";
     }
 }
 
@@ -0,0 +1,79 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * One listed file or directory, as handed to a {@link TreeVisitor} or
+ * returned by the iterator and stream of a {@link TreeWalker}. The start
+ * dir has depth 0 and its entries depth 1.
+ */
+public final class TreeEntry {
+    private final DirEntry entry;
+    private final int depth;
+    private final boolean isLast;
+    private final boolean exceedsLimit;
+    private final boolean isRepeated;
+    private final String change;
+    private final String digest;
+    private final IOException failure;
+
+    TreeEntry(DirEntry entry, int depth, boolean isLast, boolean exceedsLimit,
+            boolean isRepeated, String change, String digest) {
+        this(entry, depth, isLast, exceedsLimit, isRepeated, change, digest, null);
+    }
+
+    TreeEntry(DirEntry entry, int depth, boolean isLast, boolean exceedsLimit,
+            boolean isRepeated, String change, String digest, IOException failure) {
+        this.entry = entry;
+        this.depth = depth;
+        this.isLast = isLast;
+        this.exceedsLimit = exceedsLimit;
+        this.isRepeated = isRepeated;
+        this.change = change;
+        this.digest = digest;
+        this.failure = failure;
+    }
+
+    public Path getPath() { return entry.path; }
+
+    public String getName() { return entry.name; }
+
+    public int getDepth() { return depth; }
+
+    public boolean isDirectory() { return entry.isDir; }
+
+    public boolean isRegularFile() { return entry.isFile; }
+
+    public boolean isHidden() { return entry.isHidden; }
+
+    public long getSize() { return entry.size; }
+
+    // in milliseconds since the epoch
+    public long getLastModified() { return entry.lastModified; }
+
+    // whether it is the last entry of its directory in listing order, when known
+    public boolean isLast() { return isLast; }
+
+    // a directory with more entries than the file limit, which was not opened
+    public boolean exceedsLimit() { return exceedsLimit; }
+
+    // a directory reached again through a link when following links, whose
+    // entries are listed where it was first reached
+    public boolean isRepeated() { return isRepeated; }
+
+    // added, removed or changed when comparing, null when the same or not comparing
+    public String getChange() { return change; }
+
+    // the hex content hash when hashing, null otherwise or when it could not be read
+    public String getDigest() { return digest; }
+
+    // why it could not be read, as a walk passes it to visitFailed; a dir
+    // that could not be opened is listed without its entries. null when read
+    public IOException getFailure() { return failure; }
+
+    @Override
+    public String toString() {
+        return entry.path.toString();
+    }
+}
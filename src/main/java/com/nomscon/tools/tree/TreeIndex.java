@@ -0,0 +1,312 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory-mapped snapshot of a walked tree. The file holds a header, one
+ * fixed-size record per entry and a UTF-8 string table for the names.
+ * Entry 0 is the root and the children of a directory are stored as one
+ * contiguous block, files first, each group sorted by name.
+ *
+ * <pre>
+ * header:  magic[8] version:int entryCount:int stringsPosition:long
+ *          stringsLength:int rootOffset:int rootLength:int
+ * record:  nameOffset:int nameLength:int size:long lastModified:long
+ *          firstChild:int childCount:int flags:byte (padded to 40)
+ * </pre>
+ */
+final class TreeIndex {
+    final static byte[] MAGIC = { 'T', 'R', 'E', 'E', 'I', 'D', 'X', 0 };
+    final static int VERSION = 1;
+    final static int HEADER_SIZE = 40;
+    final static int RECORD_SIZE = 40;
+    final static int FIRST_CHILD_OFFSET = 24;
+
+    final static byte IS_DIR = 1;
+    final static byte IS_FILE = 2;
+    final static byte IS_HIDDEN = 4;
+    // the name is stored as the entry's URI, since it does not decode cleanly
+    final static byte IS_URI = 8;
+    final static byte IS_LINK = 16;
+
+    private final MappedByteBuffer map;
+    private final ByteBuffer strings;
+    private final int entryCount;
+    private final int stringsPosition;
+    private final String rootPath;
+    private byte[] nameBytes = new byte[256];
+
+    private TreeIndex(MappedByteBuffer map) throws IOException {
+        this.map = map;
+        byte[] magic = new byte[MAGIC.length];
+        map.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || map.getInt() != VERSION) {
+            throw new IOException("not a tree index");
+        }
+        entryCount = map.getInt();
+        stringsPosition = (int) map.getLong();
+        map.getInt();   // strings length
+        int rootOffset = map.getInt();
+        int rootLength = map.getInt();
+        strings = map.duplicate();
+        rootPath = readString(rootOffset, rootLength);
+    }
+
+    static long recordPosition(int index) {
+        return HEADER_SIZE + (long) index * RECORD_SIZE;
+    }
+
+    public static TreeIndex open(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("tree index too large to map: " + indexFile);
+            }
+            return new TreeIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // opens the index for root, rebuilding it first when it is missing,
+    // belongs to another root, or any directory was modified since
+    public static TreeIndex refresh(Path indexFile, Path root, DirReader reader) throws IOException {
+        String rootPath = root.toAbsolutePath().normalize().toString();
+        TreeIndex previous = null;
+        try {
+            previous = open(indexFile);
+        } catch (NoSuchFileException ex) {
+            // first run
+        } catch (IOException ex) {
+            // unreadable or outdated format, rebuild it
+        }
+        if (previous != null && previous.rootPath.equals(rootPath)) {
+            if (previous.isCurrent(root)) {
+                return previous;
+            }
+        } else {
+            previous = null;
+        }
+        build(indexFile, root, rootPath, previous, reader);
+        return open(indexFile);
+    }
+
+    public int getEntryCount() { return entryCount; }
+
+    public String getRootPath() { return rootPath; }
+
+    public String getName(int index) {
+        String name = getStoredName(index);
+        return ((getFlags(index) & IS_URI) != 0)
+                ? Paths.get(URI.create(name)).getFileName().toString()
+                : name;
+    }
+
+    public Path getPath(int index, Path parent) {
+        String name = getStoredName(index);
+        return ((getFlags(index) & IS_URI) != 0)
+                ? Paths.get(URI.create(name))
+                : parent.resolve(name);
+    }
+
+    public long getSize(int index) { return map.getLong((int) recordPosition(index) + 8); }
+
+    public long getLastModified(int index) { return map.getLong((int) recordPosition(index) + 16); }
+
+    public int getFirstChild(int index) { return map.getInt((int) recordPosition(index) + FIRST_CHILD_OFFSET); }
+
+    public int getChildCount(int index) { return map.getInt((int) recordPosition(index) + FIRST_CHILD_OFFSET + 4); }
+
+    public byte getFlags(int index) { return map.get((int) recordPosition(index) + 32); }
+
+    public boolean isDir(int index) { return (getFlags(index) & IS_DIR) != 0; }
+
+    public DirEntry toEntry(int index, Path parent) {
+        byte flags = getFlags(index);
+        return new DirEntry(getPath(index, parent), getName(index),
+                (flags & IS_DIR) != 0,
+                (flags & IS_FILE) != 0,
+                (flags & IS_HIDDEN) != 0,
+                (flags & IS_LINK) != 0,
+                getSize(index), getLastModified(index));
+    }
+
+    static byte flagsOf(DirEntry entry) {
+        return (byte) ((entry.isDir ? IS_DIR : 0)
+                | (entry.isFile ? IS_FILE : 0)
+                | (entry.isHidden ? IS_HIDDEN : 0)
+                | (entry.isLink ? IS_LINK : 0)
+                | (isDecodable(entry) ? 0 : IS_URI));
+    }
+
+    static String storedNameOf(DirEntry entry) {
+        return isDecodable(entry) ? entry.name : entry.path.toUri().toString();
+    }
+
+    private static boolean isDecodable(DirEntry entry) {
+        return entry.name.indexOf('\uFFFD') < 0;
+    }
+
+    // one stat per directory, none per file
+    private boolean isCurrent(Path root) {
+        Deque<PendingDir> pending = new ArrayDeque<>();
+        pending.push(new PendingDir(0, 0, root));
+        while (!pending.isEmpty()) {
+            PendingDir dir = pending.pop();
+            if (!isUnchanged(dir.index, dir.path)) {
+                return false;
+            }
+            int first = getFirstChild(dir.index);
+            int count = getChildCount(dir.index);
+            for (int i = first; i < first + count; i++) {
+                if (isDir(i)) {
+                    pending.push(new PendingDir(i, i, getPath(i, dir.path)));
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isUnchanged(int index, Path dir) {
+        long lastModified = readDirTime(dir);
+        return lastModified >= 0 && lastModified == getLastModified(index);
+    }
+
+    // -1 when dir is gone or no longer a dir
+    private static long readDirTime(Path dir) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(dir, BasicFileAttributes.class);
+            return attrs.isDirectory() ? attrs.lastModifiedTime().toMillis() : -1;
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    // unchanged directories are copied from the previous snapshot without
+    // being listed; only modified ones are read from disk
+    private static void build(Path indexFile, Path root, String rootPath, TreeIndex previous,
+            DirReader reader) throws IOException {
+        DirEntry rootEntry = DirReader.readStartDir(root);
+        if (rootEntry == null || !rootEntry.isDir) {
+            throw new IOException("not a directory: " + root);
+        }
+        try (TreeIndexWriter writer = new TreeIndexWriter(indexFile)) {
+            writer.add(storedNameOf(rootEntry), flagsOf(rootEntry), rootEntry.size, rootEntry.lastModified);
+            Deque<PendingDir> pending = new ArrayDeque<>();
+            pending.push(new PendingDir(0, (previous != null) ? 0 : -1, root));
+            while (!pending.isEmpty()) {
+                PendingDir dir = pending.pop();
+                long lastModified = (dir.previousIndex >= 0) ? readDirTime(dir.path) : -1;
+                if (lastModified >= 0 && lastModified == previous.getLastModified(dir.previousIndex)) {
+                    previous.copyChildren(dir, writer, pending);
+                    continue;
+                }
+                if (lastModified >= 0) {
+                    // copied from an unchanged parent with the time it had then
+                    writer.setLastModified(dir.index, lastModified);
+                }
+                readChildren(dir, previous, reader, writer, pending);
+            }
+            writer.finish(rootPath);
+        }
+    }
+
+    private void copyChildren(PendingDir dir, TreeIndexWriter writer, Deque<PendingDir> pending)
+            throws IOException {
+        int first = getFirstChild(dir.previousIndex);
+        int count = getChildCount(dir.previousIndex);
+        int newFirst = writer.getEntryCount();
+        for (int i = first; i < first + count; i++) {
+            int newIndex = writer.add(getStoredName(i), getFlags(i), getSize(i), getLastModified(i));
+            if (isDir(i)) {
+                pending.push(new PendingDir(newIndex, i, getPath(i, dir.path)));
+            }
+        }
+        writer.setChildren(dir.index, newFirst, count);
+    }
+
+    private static void readChildren(PendingDir dir, TreeIndex previous, DirReader reader,
+            TreeIndexWriter writer, Deque<PendingDir> pending) throws IOException {
+        List<DirEntry> files = new ArrayList<>();
+        List<DirEntry> subDirs = new ArrayList<>();
+        try {
+            for (DirEntry entry : reader.read(dir.path)) {
+                (entry.isDir ? subDirs : files).add(entry);
+            }
+        } catch (IOException ex) {
+            // unreadable dirs are indexed as empty
+        }
+        Collections.sort(files, DirReader.BY_NAME);
+        Collections.sort(subDirs, DirReader.BY_NAME);
+
+        Map<String, Integer> previousSubDirs = (previous != null && dir.previousIndex >= 0)
+                ? previous.getSubDirIndexes(dir.previousIndex)
+                : Collections.<String, Integer>emptyMap();
+        int newFirst = writer.getEntryCount();
+        for (DirEntry file : files) {
+            writer.add(storedNameOf(file), flagsOf(file), file.size, file.lastModified);
+        }
+        for (DirEntry subDir : subDirs) {
+            int newIndex = writer.add(storedNameOf(subDir), flagsOf(subDir),
+                    subDir.size, subDir.lastModified);
+            Integer previousIndex = previousSubDirs.get(subDir.name);
+            pending.push(new PendingDir(newIndex,
+                    (previousIndex != null) ? previousIndex : -1, subDir.path));
+        }
+        writer.setChildren(dir.index, newFirst, files.size() + subDirs.size());
+    }
+
+    private Map<String, Integer> getSubDirIndexes(int index) {
+        Map<String, Integer> subDirs = new HashMap<>();
+        int first = getFirstChild(index);
+        int count = getChildCount(index);
+        for (int i = first; i < first + count; i++) {
+            if (isDir(i)) {
+                subDirs.put(getName(i), i);
+            }
+        }
+        return subDirs;
+    }
+
+    private String getStoredName(int index) {
+        long position = recordPosition(index);
+        return readString(map.getInt((int) position), map.getInt((int) position + 4));
+    }
+
+    private String readString(int offset, int length) {
+        if (nameBytes.length < length) {
+            nameBytes = new byte[length];
+        }
+        strings.position(stringsPosition + offset);
+        strings.get(nameBytes, 0, length);
+        return new String(nameBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static final class PendingDir {
+        final int index;
+        final int previousIndex;
+        final Path path;
+
+        PendingDir(int index, int previousIndex, Path path) {
+            this.index = index;
+            this.previousIndex = previousIndex;
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.nomscon.tools.tree;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a {@link TreeIndex} file. Records are appended in allocation order
+ * and the children of a directory always take one contiguous block, so the
+ * only random writes are the child ranges patched into directory records.
+ */
+final class TreeIndexWriter implements Closeable {
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final Path indexFile;
+    private final Path entriesFile;
+    private final Path stringsFile;
+    private final FileChannel entries;
+    private final OutputStream strings;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long flushedPosition = TreeIndex.HEADER_SIZE;
+    private int entryCount = 0;
+    private int stringsLength = 0;
+    private boolean finished = false;
+
+    TreeIndexWriter(Path indexFile) throws IOException {
+        this.indexFile = indexFile.toAbsolutePath();
+        Path dir = this.indexFile.getParent();
+        entriesFile = Files.createTempFile(dir, ".tree-index-", ".tmp");
+        stringsFile = Files.createTempFile(dir, ".tree-strings-", ".tmp");
+        entries = FileChannel.open(entriesFile, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        strings = new BufferedOutputStream(Files.newOutputStream(stringsFile), BUFFER_SIZE);
+    }
+
+    public int getEntryCount() { return entryCount; }
+
+    public int add(String name, byte flags, long size, long lastModified) throws IOException {
+        if (buffer.remaining() < TreeIndex.RECORD_SIZE) {
+            flushBuffer();
+        }
+        int nameOffset = addString(name);
+        int start = buffer.position();
+        buffer.putInt(nameOffset);
+        buffer.putInt(stringsLength - nameOffset);
+        buffer.putLong(size);
+        buffer.putLong(lastModified);
+        buffer.putInt(-1);
+        buffer.putInt(0);
+        buffer.put(flags);
+        buffer.position(start + TreeIndex.RECORD_SIZE);
+        return entryCount++;
+    }
+
+    public void setChildren(int dirIndex, int firstChild, int childCount) throws IOException {
+        long position = TreeIndex.recordPosition(dirIndex) + TreeIndex.FIRST_CHILD_OFFSET;
+        if (position >= flushedPosition) {
+            int at = (int) (position - flushedPosition);
+            buffer.putInt(at, firstChild);
+            buffer.putInt(at + 4, childCount);
+        } else {
+            ByteBuffer range = ByteBuffer.allocate(8);
+            range.putInt(firstChild).putInt(childCount).flip();
+            writeFully(range, position);
+        }
+    }
+
+    // a dir whose record was copied with the time it had when its entries changed since
+    public void setLastModified(int dirIndex, long lastModified) throws IOException {
+        long position = TreeIndex.recordPosition(dirIndex) + 16;
+        if (position >= flushedPosition) {
+            buffer.putLong((int) (position - flushedPosition), lastModified);
+        } else {
+            ByteBuffer range = ByteBuffer.allocate(8);
+            range.putLong(lastModified).flip();
+            writeFully(range, position);
+        }
+    }
+
+    // appends the string table and header, then replaces the index file
+    public void finish(String rootPath) throws IOException {
+        int rootOffset = addString(rootPath);
+        int rootLength = stringsLength - rootOffset;
+        flushBuffer();
+        strings.close();
+
+        long stringsPosition = flushedPosition;
+        try (FileChannel in = FileChannel.open(stringsFile, StandardOpenOption.READ)) {
+            long copied = 0;
+            while (copied < stringsLength) {
+                copied += entries.transferFrom(in, stringsPosition + copied, stringsLength - copied);
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(TreeIndex.HEADER_SIZE);
+        header.put(TreeIndex.MAGIC);
+        header.putInt(TreeIndex.VERSION);
+        header.putInt(entryCount);
+        header.putLong(stringsPosition);
+        header.putInt(stringsLength);
+        header.putInt(rootOffset);
+        header.putInt(rootLength);
+        header.flip();
+        writeFully(header, 0);
+        entries.force(false);
+        entries.close();
+
+        try {
+            Files.move(entriesFile, indexFile,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(entriesFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            strings.close();
+            entries.close();
+        } finally {
+            Files.deleteIfExists(stringsFile);
+            if (!finished) {
+                Files.deleteIfExists(entriesFile);
+            }
+        }
+    }
+
+    private int addString(String value) throws IOException {
+        int offset = stringsLength;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        strings.write(bytes);
+        stringsLength += bytes.length;
+        return offset;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        int length = buffer.remaining();
+        writeFully(buffer, flushedPosition);
+        flushedPosition += length;
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += entries.write(src, position);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.nomscon.tools.tree;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A listed tree held in memory as parallel primitive arrays. An entry is an
+ * int index: its name is an id in a shared {@link NameArena}, its parent,
+ * first child and next sibling are indexes, and its kind is a bit in one of
+ * a few bit sets. That is 32 bytes an entry plus each distinct name once,
+ * where a DirEntry with its Path and name strings takes several hundred.
+ *
+ * Removing an entry only marks it; its slot, and those below it, are
+ * reused once a walk over its siblings has unlinked it.
+ */
+final class TreeModel {
+    final static int NONE = -1;
+
+    private final static int INITIAL_CAPACITY = 1024;
+
+    private final NameArena names = new NameArena();
+    private int[] nameIds = new int[INITIAL_CAPACITY];
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private long[] lastModified = new long[INITIAL_CAPACITY];
+    private final BitSet dirs = new BitSet();
+    private final BitSet files = new BitSet();
+    private final BitSet hidden = new BitSet();
+    private final BitSet removed = new BitSet();
+
+    private int count = 0;
+    // slots to reuse, chained through nextSiblings
+    private int freeHead = NONE;
+
+    // the index of entry, as the first child of parent or as a root with NONE
+    public int add(int parent, DirEntry entry) {
+        return add(parent, entry.name, entry.isDir, entry.isFile, entry.isHidden,
+                entry.size, entry.lastModified);
+    }
+
+    public int add(int parent, String name, boolean isDir, boolean isFile, boolean isHidden,
+            long size, long lastModified) {
+        int index = allocate();
+        nameIds[index] = names.intern(name);
+        parents[index] = parent;
+        firstChildren[index] = NONE;
+        sizes[index] = size;
+        this.lastModified[index] = lastModified;
+        dirs.set(index, isDir);
+        files.set(index, isFile);
+        hidden.set(index, isHidden);
+        if (parent != NONE) {
+            nextSiblings[index] = firstChildren[parent];
+            firstChildren[parent] = index;
+        } else {
+            nextSiblings[index] = NONE;
+        }
+        return index;
+    }
+
+    // removes the entry and everything below it
+    public void remove(int index) {
+        removed.set(index);
+    }
+
+    public void update(int index, long size, long lastModified) {
+        this.sizes[index] = size;
+        this.lastModified[index] = lastModified;
+    }
+
+    // NONE when dir has no children left
+    public int getFirstChild(int dir) {
+        int child = skipRemoved(firstChildren[dir]);
+        firstChildren[dir] = child;
+        return child;
+    }
+
+    // NONE after the last child
+    public int getNextSibling(int index) {
+        int next = skipRemoved(nextSiblings[index]);
+        nextSiblings[index] = next;
+        return next;
+    }
+
+    public int getParent(int index) { return parents[index]; }
+
+    public String getName(int index) { return names.get(nameIds[index]); }
+
+    public long getSize(int index) { return sizes[index]; }
+
+    public long getLastModified(int index) { return lastModified[index]; }
+
+    public boolean isDir(int index) { return dirs.get(index); }
+
+    public boolean isFile(int index) { return files.get(index); }
+
+    public boolean isHidden(int index) { return hidden.get(index); }
+
+    // the bytes held for the entries, their names and the free slots
+    public long getMemoryUsage() {
+        long perEntry = 4 + 4 + 4 + 4 + 8 + 8;
+        long bits = (dirs.size() + files.size() + hidden.size() + removed.size()) / 8;
+        return perEntry * nameIds.length + bits + names.getMemoryUsage();
+    }
+
+    // the entry as the walk read it, at path
+    public DirEntry toEntry(int index, Path path) {
+        return new DirEntry(path, getName(index), isDir(index), isFile(index), isHidden(index),
+                sizes[index], lastModified[index]);
+    }
+
+    // unlinks removed entries from the sibling chain starting at index,
+    // returning the first one still there
+    private int skipRemoved(int index) {
+        while (index != NONE && removed.get(index)) {
+            int next = nextSiblings[index];
+            free(index);
+            index = next;
+        }
+        return index;
+    }
+
+    // the slot and the slots below it go back on the free list
+    private void free(int index) {
+        if (dirs.get(index)) {
+            int child = firstChildren[index];
+            while (child != NONE) {
+                int next = nextSiblings[child];
+                free(child);
+                child = next;
+            }
+        }
+        removed.set(index);
+        nextSiblings[index] = freeHead;
+        freeHead = index;
+    }
+
+    private int allocate() {
+        if (freeHead != NONE) {
+            int index = freeHead;
+            freeHead = nextSiblings[index];
+            removed.clear(index);
+            return index;
+        }
+        if (count == nameIds.length) {
+            int capacity = count * 2;
+            nameIds = Arrays.copyOf(nameIds, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            lastModified = Arrays.copyOf(lastModified, capacity);
+        }
+        return count++;
+    }
+}
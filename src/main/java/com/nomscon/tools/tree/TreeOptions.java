@@ -0,0 +1,346 @@
+package com.nomscon.tools.tree;
+
+import java.nio.file.Path;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * What a {@link TreeWalker} lists and how. Instances are immutable and made
+ * with {@link #builder()}; the patterns are compiled once, when built, so
+ * one instance can be shared by any number of walks and threads.
+ *
+ * <pre>
+ * TreeOptions options = TreeOptions.builder()
+ *         .maxDepth(3)
+ *         .exclude("target|.git")
+ *         .build();
+ * </pre>
+ */
+public final class TreeOptions {
+    private final int maxDepth;
+    private final int fileLimit;
+    private final int threadCount;
+    private final int memoryLimit;
+    private final int readTimeout;
+    private final int retryCount;
+    private final boolean includeAll;
+    private final boolean includeOnlyDirs;
+    private final boolean excludeEmptyDirs;
+    private final boolean showDiskUsage;
+    private final boolean isSorted;
+    private final String sortOrder;
+    private final boolean listDirsFirst;
+    private final int firstFileCount;
+    private final boolean followLinks;
+    private final boolean stayOnFileSystem;
+    private final NameMatcher includePatterns;
+    private final NameMatcher excludePatterns;
+    private final Path indexFile;
+    private final Path compareDir;
+    private final String hashName;
+    private final Path hashCacheFile;
+    private final boolean collectStats;
+
+    private TreeOptions(Builder builder) {
+        this.maxDepth = builder.maxDepth;
+        this.fileLimit = builder.fileLimit;
+        this.threadCount = builder.threadCount;
+        this.memoryLimit = builder.memoryLimit;
+        this.readTimeout = builder.readTimeout;
+        this.retryCount = builder.retryCount;
+        this.includeAll = builder.includeAll;
+        this.includeOnlyDirs = builder.includeOnlyDirs;
+        this.excludeEmptyDirs = builder.excludeEmptyDirs;
+        this.showDiskUsage = builder.showDiskUsage;
+        this.sortOrder = builder.sortOrder;
+        this.listDirsFirst = builder.listDirsFirst;
+        this.firstFileCount = builder.firstFileCount;
+        this.followLinks = builder.followLinks;
+        this.stayOnFileSystem = builder.stayOnFileSystem;
+        this.includePatterns = builder.includePatterns;
+        this.excludePatterns = builder.excludePatterns;
+        this.indexFile = builder.indexFile;
+        this.compareDir = builder.compareDir;
+        this.hashName = builder.hashName;
+        this.hashCacheFile = builder.hashCacheFile;
+        this.collectStats = builder.collectStats;
+        // only the sorted printer can read in parallel, from an index, side by
+        // side or giving up on a dir
+        this.isSorted = builder.isSorted || sortOrder != null || firstFileCount > 0
+                || threadCount > 0 || indexFile != null || compareDir != null
+                || readTimeout > 0 || retryCount > 0;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // levels below the start dir to list, 0 when unlimited
+    public int getMaxDepth() { return maxDepth; }
+
+    // dirs with more entries are not opened, 0 when unlimited
+    public int getFileLimit() { return fileLimit; }
+
+    // threads reading directories ahead of the listing, 0 when not sorted
+    public int getThreadCount() { return threadCount; }
+
+    // entries held in memory per directory before spilling, 0 when not streaming
+    public int getMemoryLimit() { return memoryLimit; }
+
+    // millis a directory read may take before it is given up on, 0 when unlimited
+    public int getReadTimeout() { return readTimeout; }
+
+    // times a directory read that failed with EIO or ESTALE is tried again
+    public int getRetryCount() { return retryCount; }
+
+    public boolean includeAll() { return includeAll; }
+
+    public boolean includeOnlyDirs() { return includeOnlyDirs; }
+
+    public boolean excludeEmptyDirs() { return excludeEmptyDirs; }
+
+    public boolean showDiskUsage() { return showDiskUsage; }
+
+    // files first, then dirs, each sorted by name; otherwise in file system order
+    public boolean isSorted() { return isSorted; }
+
+    // name, mtime, size, version or locale when sorting by it, null for the name
+    public String getSortOrder() { return sortOrder; }
+
+    public boolean listDirsFirst() { return listDirsFirst; }
+
+    // files listed per dir in sort order, 0 when unlimited
+    public int getFirstFileCount() { return firstFileCount; }
+
+    // links to dirs are listed through, each dir once
+    public boolean followLinks() { return followLinks; }
+
+    // dirs on other file systems than the start dir are not opened
+    public boolean stayOnFileSystem() { return stayOnFileSystem; }
+
+    // null when every file is listed
+    NameMatcher getIncludePatterns() { return includePatterns; }
+
+    // null when nothing is excluded
+    NameMatcher getExcludePatterns() { return excludePatterns; }
+
+    // null unless listing from a snapshot file
+    public Path getIndexFile() { return indexFile; }
+
+    // null unless marking the differences to another tree
+    public Path getCompareDir() { return compareDir; }
+
+    // sha256, xxh64 or crc32c when files are hashed, null otherwise
+    public String getHashName() { return hashName; }
+
+    // null unless digests are kept between runs
+    public Path getHashCacheFile() { return hashCacheFile; }
+
+    public boolean collectStats() { return collectStats; }
+
+    public static final class Builder {
+        private int maxDepth = 0;
+        private int fileLimit = 0;
+        private int threadCount = 0;
+        private int memoryLimit = 0;
+        private int readTimeout = 0;
+        private int retryCount = 0;
+        private boolean includeAll = false;
+        private boolean includeOnlyDirs = false;
+        private boolean excludeEmptyDirs = false;
+        private boolean showDiskUsage = false;
+        private boolean isSorted = false;
+        private String sortOrder = null;
+        private boolean listDirsFirst = false;
+        private int firstFileCount = 0;
+        private boolean followLinks = false;
+        private boolean stayOnFileSystem = false;
+        private NameMatcher includePatterns = null;
+        private NameMatcher excludePatterns = null;
+        private Path indexFile = null;
+        private Path compareDir = null;
+        private String hashName = null;
+        private Path hashCacheFile = null;
+        private boolean collectStats = false;
+
+        private Builder() {
+        }
+
+        public Builder maxDepth(int maxDepth) {
+            this.maxDepth = requireNotNegative(maxDepth, "maxDepth");
+            return this;
+        }
+
+        public Builder fileLimit(int fileLimit) {
+            this.fileLimit = requireNotNegative(fileLimit, "fileLimit");
+            return this;
+        }
+
+        // more than one reads sub directories ahead on a pool; implies sorted
+        public Builder threads(int threadCount) {
+            this.threadCount = requireNotNegative(threadCount, "threads");
+            return this;
+        }
+
+        public Builder memoryLimit(int memoryLimit) {
+            this.memoryLimit = requireNotNegative(memoryLimit, "memoryLimit");
+            return this;
+        }
+
+        // each dir is read on a thread of its own, so one that hangs is
+        // reported as failed instead of stalling the walk; implies sorted
+        public Builder readTimeout(int millis) {
+            this.readTimeout = requireNotNegative(millis, "readTimeout");
+            return this;
+        }
+
+        // with backoff, starting at 100 ms; implies sorted
+        public Builder retries(int retryCount) {
+            this.retryCount = requireNotNegative(retryCount, "retries");
+            return this;
+        }
+
+        public Builder includeAll(boolean includeAll) {
+            this.includeAll = includeAll;
+            return this;
+        }
+
+        public Builder dirsOnly(boolean dirsOnly) {
+            this.includeOnlyDirs = dirsOnly;
+            return this;
+        }
+
+        public Builder prune(boolean prune) {
+            this.excludeEmptyDirs = prune;
+            return this;
+        }
+
+        public Builder diskUsage(boolean diskUsage) {
+            this.showDiskUsage = diskUsage;
+            return this;
+        }
+
+        public Builder sorted(boolean sorted) {
+            this.isSorted = sorted;
+            return this;
+        }
+
+        // mtime lists the newest first, size the largest, version numbers in
+        // names by value and locale by the collation of the default locale;
+        // implies sorted
+        public Builder sortBy(String sortOrder) {
+            if (sortOrder != null && !EntryOrder.isSupported(sortOrder)) {
+                throw new IllegalArgumentException("unknown sort order: " + sortOrder
+                        + ", use name, mtime, size, version or locale");
+            }
+            this.sortOrder = sortOrder;
+            return this;
+        }
+
+        // the file walk already lists the dirs it enters before the files
+        public Builder dirsFirst(boolean dirsFirst) {
+            this.listDirsFirst = dirsFirst;
+            return this;
+        }
+
+        // implies sorted
+        public Builder firstFiles(int firstFileCount) {
+            this.firstFileCount = requireNotNegative(firstFileCount, "firstFiles");
+            return this;
+        }
+
+        // a dir reached again, through a link or a loop, is listed as a
+        // reference to where it was first listed
+        public Builder followLinks(boolean followLinks) {
+            this.followLinks = followLinks;
+            return this;
+        }
+
+        public Builder oneFileSystem(boolean oneFileSystem) {
+            this.stayOnFileSystem = oneFileSystem;
+            return this;
+        }
+
+        // wildcard patterns (*, ?, [...]) separated by '|' that files must match
+        public Builder include(String... patternLists) {
+            this.includePatterns = compile(patternLists);
+            return this;
+        }
+
+        // wildcard patterns that files and dirs must not match
+        public Builder exclude(String... patternLists) {
+            this.excludePatterns = compile(patternLists);
+            return this;
+        }
+
+        Builder include(NameMatcher includePatterns) {
+            this.includePatterns = includePatterns;
+            return this;
+        }
+
+        Builder exclude(NameMatcher excludePatterns) {
+            this.excludePatterns = excludePatterns;
+            return this;
+        }
+
+        // implies sorted
+        public Builder index(Path indexFile) {
+            this.indexFile = indexFile;
+            return this;
+        }
+
+        // implies sorted
+        public Builder compareWith(Path compareDir) {
+            this.compareDir = compareDir;
+            return this;
+        }
+
+        public Builder hash(String hashName) {
+            if (hashName != null && !ContentHash.isSupported(hashName)) {
+                throw new IllegalArgumentException("unknown hash: " + hashName
+                        + ", use sha256, xxh64 or crc32c");
+            }
+            this.hashName = hashName;
+            return this;
+        }
+
+        public Builder hashCache(Path hashCacheFile) {
+            this.hashCacheFile = hashCacheFile;
+            return this;
+        }
+
+        public Builder stats(boolean collectStats) {
+            this.collectStats = collectStats;
+            return this;
+        }
+
+        public TreeOptions build() {
+            if (hashCacheFile != null && hashName == null) {
+                throw new IllegalArgumentException("a hash cache needs a hash");
+            }
+            if (compareDir != null && (showDiskUsage || indexFile != null || memoryLimit > 0)) {
+                throw new IllegalArgumentException(
+                        "comparing cannot be combined with disk usage, an index or a memory limit");
+            }
+            if (compareDir != null && ((sortOrder != null && !EntryOrder.NAME.equals(sortOrder))
+                    || firstFileCount > 0)) {
+                throw new IllegalArgumentException("comparing lists by name and lists every file");
+            }
+            return new TreeOptions(this);
+        }
+
+        private static int requireNotNegative(int value, String name) {
+            if (value < 0) {
+                throw new IllegalArgumentException(name + " cannot be negative: " + value);
+            }
+            return value;
+        }
+
+        private static NameMatcher compile(String[] patternLists) {
+            try {
+                return NameMatcher.compile(patternLists);
+            } catch (PatternSyntaxException ex) {
+                throw new IllegalArgumentException("invalid pattern: " + ex.getPattern(), ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+
+/**
+ * Receives the listing as a stream of events in output order and writes
+ * each one to the {@link Log} sink as it arrives, keeping nothing per
+ * entry. The start dir is entered at level 0 and every entered dir is
+ * exited once everything below it was rendered, except those --prune drops.
+ * With --compare, entries carry how they differ from the other tree.
+ */
+interface TreeRenderer {
+    // how an entry differs with --compare, null when it does not or when not comparing
+    final static String ADDED = "added";
+    final static String REMOVED = "removed";
+    final static String CHANGED = "changed";
+
+    void startTree();
+
+    void enterDir(DirEntry dir, int level, boolean isLast, boolean exceedsLimit, String change);
+
+    // digest is the file's content hash with --hash, null otherwise or when it could not be read
+    void file(DirEntry file, int level, boolean isLast, String change, String digest);
+
+    // path could not be read; a dir is not entered, nor anything below it listed
+    void failed(Path path, int level, boolean isLast, IOException ex);
+
+    // a dir reached again with -l, whose entries are listed where it was first
+    // reached; linkTarget is what the link points to, null when dir is not a link
+    void repeatedDir(DirEntry dir, int level, boolean isLast, Path linkTarget);
+
+    // usage is the bytes used by dir and everything below it, with --du
+    void exitDir(DirEntry dir, int level, long usage);
+
+    // failedCount is the dirs and files that could not be read, each reported
+    // by failed, and timedOutCount the dirs of them whose read timed out
+    void report(int dirCount, int fileCount, int failedCount, int timedOutCount, long usage);
+
+    void endTree();
+
+    // what the file system said, such as "Input/output error" or how long a
+    // read timed out after; null when it said nothing more
+    static String getReason(IOException ex) {
+        return (ex instanceof FileSystemException) ? ((FileSystemException) ex).getReason() : null;
+    }
+}
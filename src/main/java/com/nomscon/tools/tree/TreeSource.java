@@ -0,0 +1,17 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where the sorted printer reads directories from: the file system through
+ * a {@link DirReader}, or an archive whose headers were read up front.
+ */
+interface TreeSource {
+    // null when path cannot be read
+    DirEntry readEntry(Path path);
+
+    // with an entryLimit > 0, returns false, having handed nothing over,
+    // when dir has more entries
+    boolean read(Path dir, DirReader.EntryHandler handler, int entryLimit) throws IOException;
+}
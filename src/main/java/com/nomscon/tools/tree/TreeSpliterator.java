@@ -0,0 +1,316 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Walks a tree only as far as it is pulled, in file system order with each
+ * dir followed by what is below it. All it holds is a stack with the open
+ * directory stream of each dir on the way down, reading one entry ahead to
+ * tell the last one of a dir. A split takes everything up to the remaining
+ * entries of the shallowest open dir, so splits cover whole sub trees.
+ * Running it closes every stream it or its splits still have open.
+ */
+final class TreeSpliterator implements Spliterator<TreeEntry>, Runnable {
+    private final TreeOptions options;
+    private final DirReader reader = new DirReader(false);
+    private final OpenStreams openStreams;
+
+    // the top is the deepest open dir
+    private final Deque<Frame> stack;
+    private DirEntry pendingRoot;
+    // halved by each split so a parallel stream stops splitting at some point
+    private long estimate = Long.MAX_VALUE;
+
+    TreeSpliterator(TreeOptions options, Path root) throws IOException {
+        this.options = options;
+        this.openStreams = new OpenStreams();
+        this.stack = new ArrayDeque<>();
+        BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+        this.pendingRoot = DirReader.fromAttributes(root, attrs);
+        stack.push(open(root, 1));
+    }
+
+    // a split, which takes the root along when it is still to come
+    private TreeSpliterator(TreeSpliterator parent, Deque<Frame> stack) {
+        this.options = parent.options;
+        this.openStreams = parent.openStreams;
+        this.stack = stack;
+        this.pendingRoot = parent.pendingRoot;
+        parent.pendingRoot = null;
+        parent.estimate >>>= 1;
+        this.estimate = parent.estimate;
+    }
+
+    // whether the walk can be pulled lazily; sorting, listing dirs first,
+    // pruning and hashing need more of the tree than the entry at hand, and
+    // following links needs the dirs listed so far
+    static boolean canWalk(TreeOptions options) {
+        return !options.isSorted() && !options.listDirsFirst() && !options.excludeEmptyDirs()
+                && options.getHashName() == null && !options.followLinks()
+                && !options.stayOnFileSystem();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super TreeEntry> action) {
+        if (openStreams.isClosed) {
+            return false;
+        }
+        if (pendingRoot != null) {
+            action.accept(new TreeEntry(pendingRoot, 0, false, false, false, null, null));
+            pendingRoot = null;
+            return true;
+        }
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            DirEntry entry = frame.next;
+            if (entry == null) {
+                frame.close();
+                stack.pop();
+                continue;
+            }
+            frame.next = frame.read();
+            boolean isLast = frame.next == null && !frame.continuesInSplit;
+            boolean exceedsLimit = false;
+            IOException failure = null;
+            if (frame.opensDirs && isOpened(entry, frame.depth)) {
+                exceedsLimit = exceedsLimit(entry.path);
+                if (!exceedsLimit) {
+                    failure = openBelow(entry, frame.depth);
+                }
+            }
+            action.accept(new TreeEntry(entry, frame.depth, isLast, exceedsLimit, false, null, null,
+                    failure));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<TreeEntry> trySplit() {
+        if (openStreams.isClosed) {
+            return null;
+        }
+        // the shallowest dir with entries left, and whether a deeper one has any
+        Frame splitFrame = null;
+        boolean deeperHasEntries = false;
+        for (Frame frame : stack) {
+            if (frame.next != null) {
+                deeperHasEntries |= (splitFrame != null);
+                splitFrame = frame;
+            }
+        }
+        if (splitFrame == null) {
+            return null;
+        }
+        List<DirEntry> rest = splitFrame.readRest();
+        Deque<Frame> prefix = new ArrayDeque<>();
+        if (deeperHasEntries) {
+            // the split takes the open dirs below the shallowest, this keeps its rest
+            while (stack.peek() != splitFrame) {
+                prefix.addLast(stack.pop());
+            }
+        } else if (rest.size() >= 2) {
+            // only that dir has entries left, the split takes the first half
+            List<DirEntry> firstHalf = rest.subList(0, rest.size() / 2);
+            Frame first = new Frame(splitFrame.depth, new ArrayList<>(firstHalf));
+            first.continuesInSplit = true;
+            firstHalf.clear();
+            prefix.push(first);
+        } else if (rest.size() == 1 && splitFrame.opensDirs
+                && isOpened(rest.get(0), splitFrame.depth) && !exceedsLimit(rest.get(0).path)
+                && openBelow(rest.get(0), splitFrame.depth) == null) {
+            // a single dir left: the split lists it, this goes on below it;
+            // one that cannot be opened is left to be listed with its failure
+            Frame first = new Frame(splitFrame.depth, new ArrayList<>(rest));
+            first.continuesInSplit = splitFrame.continuesInSplit;
+            first.opensDirs = false;
+            prefix.push(first);
+            rest.remove(0);
+        }
+        splitFrame.listed = rest.iterator();
+        splitFrame.next = splitFrame.read();
+        return prefix.isEmpty() ? null : new TreeSpliterator(this, prefix);
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.ORDERED | Spliterator.NONNULL;
+    }
+
+    // closes the walk and all its splits
+    @Override
+    public void run() {
+        openStreams.closeAll();
+    }
+
+    private boolean isOpened(DirEntry entry, int depth) {
+        return entry.isDir && (options.getMaxDepth() == 0 || depth < options.getMaxDepth());
+    }
+
+    // the failure when dir cannot be opened, which is then listed without its entries
+    private IOException openBelow(DirEntry dir, int depth) {
+        try {
+            stack.push(open(dir.path, depth + 1));
+            return null;
+        } catch (IOException ex) {
+            return ex;
+        }
+    }
+
+    private boolean exceedsLimit(Path dir) {
+        int fileLimit = options.getFileLimit();
+        if (fileLimit <= 0) {
+            return false;
+        }
+        try {
+            return reader.count(dir, fileLimit + 1) > fileLimit;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private Frame open(Path dir, int depth) throws IOException {
+        Frame frame = new Frame(depth, openStreams.open(dir));
+        frame.next = frame.read();
+        return frame;
+    }
+
+    // null for entries that are not listed
+    private DirEntry readListed(Path path) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException ex) {
+            // vanished since it was read
+            return null;
+        }
+        boolean isDir = attrs.isDirectory();
+        if (!isDir && (options.includeOnlyDirs()
+                || !(attrs.isRegularFile() || attrs.isSymbolicLink()))) {
+            return null;
+        }
+        DirEntry entry = DirReader.fromAttributes(path, attrs);
+        NameMatcher exclude = options.getExcludePatterns();
+        NameMatcher include = isDir ? null : options.getIncludePatterns();
+        boolean isListed = (!entry.isHidden || options.includeAll())
+                && (exclude == null || !exclude.matches(entry.name))
+                && (include == null || include.matches(entry.name));
+        return isListed ? entry : null;
+    }
+
+    // an open dir; its entries come from its stream or, once split, from a list
+    private final class Frame {
+        final int depth;
+        private DirectoryStream<Path> stream;
+        private Iterator<Path> paths;
+        Iterator<DirEntry> listed = null;
+        // the next listed entry, null at the end
+        DirEntry next = null;
+        // its entries go on in another split, so its last one here is not the last
+        boolean continuesInSplit = false;
+        // false for the dir a split lists while another split goes on below it
+        boolean opensDirs = true;
+
+        Frame(int depth, DirectoryStream<Path> stream) {
+            this.depth = depth;
+            this.stream = stream;
+            this.paths = stream.iterator();
+        }
+
+        Frame(int depth, List<DirEntry> entries) {
+            this.depth = depth;
+            this.stream = null;
+            this.paths = null;
+            this.listed = entries.iterator();
+            this.next = read();
+        }
+
+        DirEntry read() {
+            if (listed != null) {
+                return listed.hasNext() ? listed.next() : null;
+            }
+            try {
+                while (paths != null && paths.hasNext()) {
+                    DirEntry entry = readListed(paths.next());
+                    if (entry != null) {
+                        return entry;
+                    }
+                }
+            } catch (DirectoryIteratorException ex) {
+                // the rest of the dir cannot be read
+            }
+            close();
+            return null;
+        }
+
+        // the next entry and everything after it, closing the stream
+        List<DirEntry> readRest() {
+            List<DirEntry> rest = new ArrayList<>();
+            for (DirEntry entry = next; entry != null; entry = read()) {
+                rest.add(entry);
+            }
+            return rest;
+        }
+
+        void close() {
+            paths = null;
+            if (stream != null) {
+                openStreams.close(stream);
+                stream = null;
+            }
+        }
+    }
+
+    // the streams still open by a walk and its splits, which may be on other threads
+    private static final class OpenStreams {
+        private final Set<DirectoryStream<Path>> streams = ConcurrentHashMap.newKeySet();
+        volatile boolean isClosed = false;
+
+        DirectoryStream<Path> open(Path dir) throws IOException {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+            streams.add(stream);
+            if (isClosed) {
+                // closed while opening
+                close(stream);
+            }
+            return stream;
+        }
+
+        void close(DirectoryStream<Path> stream) {
+            streams.remove(stream);
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                // nothing left to read from it anyway
+            }
+        }
+
+        void closeAll() {
+            isClosed = true;
+            for (DirectoryStream<Path> stream : streams) {
+                close(stream);
+            }
+        }
+    }
+}
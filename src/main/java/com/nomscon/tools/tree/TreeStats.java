@@ -0,0 +1,218 @@
+package com.nomscon.tools.tree;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where a listing spends its time, gathered with --stats. Each phase keeps
+ * a count, a total and a histogram of latencies in power-of-two buckets of
+ * nanoseconds, and the directories that took longest to read are kept by
+ * name. Recording is thread safe, since the scanner reads on a pool. Without
+ * stats there is no instance, and the timed code only checks for null.
+ */
+public final class TreeStats {
+    private final static int SLOWEST_DIR_COUNT = 5;
+
+    // reading the entries of a directory, without the stat of each entry
+    private final Histogram dirRead = new Histogram("dir read");
+    private final Histogram stat = new Histogram("stat");
+    private final Histogram sort = new Histogram("sort");
+    private final Histogram filter = new Histogram("filter");
+    private final Histogram render = new Histogram("render");
+
+    // sorted by read time, longest first
+    private final List<SlowDir> slowestDirs = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private long elapsedNanos = -1;
+
+    TreeStats() {
+    }
+
+    public Histogram getDirRead() { return dirRead; }
+
+    public Histogram getStat() { return stat; }
+
+    public Histogram getSort() { return sort; }
+
+    public Histogram getFilter() { return filter; }
+
+    public Histogram getRender() { return render; }
+
+    public synchronized List<SlowDir> getSlowestDirs() {
+        return new ArrayList<>(slowestDirs);
+    }
+
+    // wall time from creation until finish, or until now while listing
+    public long getElapsedNanos() {
+        return (elapsedNanos >= 0) ? elapsedNanos : System.nanoTime() - startNanos;
+    }
+
+    void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    void recordDirRead(Path dir, long nanos) {
+        dirRead.record(nanos);
+        synchronized (this) {
+            int count = slowestDirs.size();
+            if (count == SLOWEST_DIR_COUNT && slowestDirs.get(count - 1).nanos >= nanos) {
+                return;
+            }
+            int at = count;
+            while (at > 0 && slowestDirs.get(at - 1).nanos < nanos) {
+                at--;
+            }
+            slowestDirs.add(at, new SlowDir(dir, nanos));
+            if (count == SLOWEST_DIR_COUNT) {
+                slowestDirs.remove(SLOWEST_DIR_COUNT);
+            }
+        }
+    }
+
+    // prints a table of the phases that were timed, then the slowest dirs
+    void print(OutputSink out) {
+        StringBuilder line = new StringBuilder(128);
+        out.newLine();
+        out.write(" phase          count      total       mean        p50        p99        max");
+        out.newLine();
+        for (Histogram phase : new Histogram[] { dirRead, stat, sort, filter, render }) {
+            if (phase.getCount() == 0) {
+                continue;
+            }
+            line.setLength(0);
+            line.append(' ').append(phase.name);
+            while (line.length() < 10) {
+                line.append(' ');
+            }
+            int start = line.length();
+            line.append(phase.getCount());
+            SizeFormat.padLeft(line, start, 10);
+            appendColumn(line, phase.getTotalNanos());
+            appendColumn(line, phase.getTotalNanos() / phase.getCount());
+            appendColumn(line, phase.getPercentile(50));
+            appendColumn(line, phase.getPercentile(99));
+            appendColumn(line, phase.getMaxNanos());
+            out.write(line);
+            out.newLine();
+        }
+        List<SlowDir> slowest = getSlowestDirs();
+        if (!slowest.isEmpty()) {
+            out.newLine();
+            out.write(" slowest directories:");
+            out.newLine();
+            for (SlowDir dir : slowest) {
+                line.setLength(0);
+                appendColumn(line, dir.nanos).append("  ").append(dir.path);
+                out.write(line);
+                out.newLine();
+            }
+        }
+        out.newLine();
+        line.setLength(0);
+        out.write(appendDuration(line.append(" listed in "), getElapsedNanos()));
+        out.newLine();
+    }
+
+    private static StringBuilder appendColumn(StringBuilder line, long nanos) {
+        int start = line.length();
+        appendDuration(line, nanos);
+        return SizeFormat.padLeft(line, start, 11);
+    }
+
+    // three significant digits, as in "850 ns", "12.3 us", "4.56 ms" or "1.20 s"
+    static StringBuilder appendDuration(StringBuilder sb, long nanos) {
+        if (nanos < 1000) {
+            return sb.append(nanos).append(" ns");
+        }
+        double value = nanos / 1e3;
+        String unit = " us";
+        if (value >= 999.5) {
+            value /= 1e3;
+            unit = " ms";
+            if (value >= 999.5) {
+                value /= 1e3;
+                unit = " s";
+            }
+        }
+        long hundredths = Math.round(value * 100);
+        if (hundredths >= 10000) {
+            sb.append(Math.round(value));
+        } else if (hundredths >= 1000) {
+            long tenths = Math.round(value * 10);
+            sb.append(tenths / 10).append('.').append(tenths % 10);
+        } else {
+            sb.append(hundredths / 100).append('.').append(hundredths / 10 % 10).append(hundredths % 10);
+        }
+        return sb.append(unit);
+    }
+
+    public static final class Histogram {
+        // bucket b holds latencies below 2^b ns, from 2^(b-1)
+        private final static int BUCKET_COUNT = 64;
+
+        final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        public String getName() { return name; }
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            buckets.incrementAndGet(Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        public long getCount() { return count.get(); }
+
+        public long getTotalNanos() { return totalNanos.get(); }
+
+        public long getMaxNanos() { return maxNanos.get(); }
+
+        public long getBucketCount(int bucket) { return buckets.get(bucket); }
+
+        // the upper bound of the bucket holding the percentile, at most the max
+        public long getPercentile(int percent) {
+            long total = getCount();
+            long rank = (total * percent + 99) / 100;
+            long seen = 0;
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                seen += buckets.get(b);
+                if (seen >= rank && seen > 0) {
+                    long bound = (b == 0) ? 0 : (b >= 63) ? Long.MAX_VALUE : (1L << b) - 1;
+                    return Math.min(bound, getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+    }
+
+    public static final class SlowDir {
+        final Path path;
+        final long nanos;
+
+        SlowDir(Path path, long nanos) {
+            this.path = path;
+            this.nanos = nanos;
+        }
+
+        public Path getPath() { return path; }
+
+        public long getNanos() { return nanos; }
+    }
+}
@@ -0,0 +1,47 @@
+package com.nomscon.tools.tree;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The totals of one walk, not counting the start dir itself.
+ */
+public final class TreeSummary {
+    private final int dirCount;
+    private final int fileCount;
+    private final int failedCount;
+    private final int timedOutCount;
+    private final long usage;
+    private final TreeStats stats;
+    private final List<String> warnings;
+
+    TreeSummary(int dirCount, int fileCount, int failedCount, int timedOutCount, long usage,
+            TreeStats stats, List<String> warnings) {
+        this.dirCount = dirCount;
+        this.fileCount = fileCount;
+        this.failedCount = failedCount;
+        this.timedOutCount = timedOutCount;
+        this.usage = usage;
+        this.stats = stats;
+        this.warnings = Collections.unmodifiableList(warnings);
+    }
+
+    public int getDirectoryCount() { return dirCount; }
+
+    public int getFileCount() { return fileCount; }
+
+    // the dirs and files that could not be read, each reported where it was
+    public int getFailedCount() { return failedCount; }
+
+    // the failed dirs that were given up on after the read timeout
+    public int getTimedOutCount() { return timedOutCount; }
+
+    // the bytes used by the start dir and everything listed below it, 0 without disk usage
+    public long getUsage() { return usage; }
+
+    // where the time went, null unless stats were collected
+    public TreeStats getStats() { return stats; }
+
+    // problems that did not stop the walk, such as an unusable index or hash cache
+    public List<String> getWarnings() { return warnings; }
+}
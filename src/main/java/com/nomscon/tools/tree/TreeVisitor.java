@@ -0,0 +1,31 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Receives a walk as it happens, in listing order, on the thread that
+ * called {@link TreeWalker#walk}. The start dir is entered first and every
+ * entered dir is exited once everything below it was visited, except those
+ * dropped by prune. Only the callbacks of interest need to be implemented.
+ */
+public interface TreeVisitor {
+    default void enterDirectory(TreeEntry dir) {
+    }
+
+    default void visitFile(TreeEntry file) {
+    }
+
+    // an entry that could not be read, at the depth it would have been listed
+    default void visitFailed(Path path, int depth, IOException ex) {
+    }
+
+    // a dir reached again through a link when following links; its entries
+    // were visited where it was first reached, linkTarget is null unless dir is a link
+    default void visitRepeatedDirectory(TreeEntry dir, Path linkTarget) {
+    }
+
+    // usage is the bytes used by dir and everything below it with disk usage, 0 otherwise
+    default void exitDirectory(TreeEntry dir, long usage) {
+    }
+}
@@ -0,0 +1,896 @@
+package com.nomscon.tools.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * One walk of a {@link TreeWalker}. Lists the tree below root as renderer
+ * events, in file system order with the file walk or sorted with the sorted
+ * printer, and counts what it lists. A walk is used once, on one thread;
+ * only the pools it is given are shared with other walks.
+ */
+final class TreeWalk {
+    // what checkDir finds
+    private final static int OPEN_DIR = 0;
+    private final static int REPEATED_DIR = 1;
+    private final static int OTHER_FILE_SYSTEM = 2;
+
+    private final TreeOptions options;
+    private final Path root;
+    // null when directories are read inline
+    private final ForkJoinPool scanPool;
+    private final ExecutorService hashPool;
+    // null unless dir reads are timed
+    private final ExecutorService readPool;
+    private final List<String> warnings = new ArrayList<>();
+    
+    private int dirCount = 0;
+    private int fileCount = 0;
+    // entries that could not be read, and the dirs of them that timed out
+    private int failedCount = 0;
+    private int timedOutCount = 0;
+    
+    private DirScanner scanner = null;
+    
+    private TreeRenderer renderer = null;
+    private TreeWatcher watcher = null;
+    
+    // with a hash, file contents are hashed on the pool while the listing goes on
+    private FileHasher hasher = null;
+    private DigestCache digestCache = null;
+    
+    // with stats, where the time goes; null otherwise, which the timed code checks
+    private TreeStats stats = null;
+    
+    // when comparing, the other tree is listed on its own thread
+    private DirScanner otherScanner = null;
+    private ExecutorService otherSide = null;
+    
+    // with prune, the dir lines of the open dirs that have nothing printed yet
+    private final List<HeldDirLine> heldDirLines = new ArrayList<>();
+    
+    // with disk usage, the bytes used by the start dir and everything listed below it
+    private long totalUsage = 0;
+    
+    // following links, the dirs listed so far, so a loop or a dir reached
+    // twice is only listed once; null otherwise
+    private FileKeySet listedDirs = null;
+    // staying on one file system, the device of the start dir, or its store
+    // where file keys carry no device
+    private long rootDevice = FileKeySet.UNKNOWN_DEVICE;
+    private FileStore rootStore = null;
+    
+    // an archive listed in place of root, or of the other tree when comparing
+    private ArchiveTree archive = null;
+    private ArchiveTree otherArchive = null;
+
+    TreeWalk(TreeOptions options, Path root, ForkJoinPool scanPool, ExecutorService hashPool,
+            ExecutorService readPool) {
+        this.options = options;
+        this.root = root;
+        this.scanPool = scanPool;
+        this.hashPool = hashPool;
+        this.readPool = readPool;
+    }
+
+    // either may be null, for a dir on the file system
+    void setArchives(ArchiveTree archive, ArchiveTree otherArchive) {
+        this.archive = archive;
+        this.otherArchive = otherArchive;
+    }
+
+    // every event has been rendered when this returns; watcher is null
+    // unless the listed dirs are watched afterwards
+    TreeSummary run(TreeRenderer target, TreeWatcher watcher) {
+        this.watcher = watcher;
+        if (options.collectStats()) {
+            stats = new TreeStats();
+            target = new TimedRenderer(target, stats);
+        }
+        HashingRenderer hashing = null;
+        if (options.getHashName() != null) {
+            hasher = createHasher();
+            target = hashing = new HashingRenderer(target, hasher);
+        }
+        renderer = target;
+        // comparing lists both trees as the sorted printer reads them
+        if (options.getCompareDir() == null && archive == null
+                && (options.followLinks() || options.stayOnFileSystem())) {
+            startDirChecks();
+        }
+        boolean isComplete = false;
+        try {
+            if (options.getCompareDir() != null) {
+                printComparison();
+            } else if (options.isSorted() || archive != null) {
+                printTree();
+            } else {
+                walkTree();
+            }
+            if (hashing != null) {
+                hashing.flush();
+            }
+            isComplete = true;
+        } finally {
+            if (hashing != null && !isComplete) {
+                hashing.cancel();
+            }
+            if (digestCache != null) {
+                saveDigestCache();
+            }
+        }
+        if (stats != null) {
+            stats.finish();
+        }
+        return new TreeSummary(dirCount, fileCount, failedCount, timedOutCount, totalUsage,
+                stats, warnings);
+    }
+    
+    private FileHasher createHasher() {
+        Path cacheFile = options.getHashCacheFile();
+        if (cacheFile != null) {
+            try {
+                digestCache = DigestCache.load(cacheFile, options.getHashName());
+            } catch (IOException ex) {
+                // still hash, just without the earlier digests
+                warnings.add("unable to read hash cache " + cacheFile + ": " + ex.getMessage());
+            }
+        }
+        return new FileHasher(options.getHashName(), hashPool, digestCache);
+    }
+    
+    private void saveDigestCache() {
+        try {
+            digestCache.save();
+        } catch (IOException ex) {
+            warnings.add("unable to save hash cache " + options.getHashCacheFile() + ": " + ex.getMessage());
+        }
+    }
+    
+    private void walkTree()
+    {
+        EnumSet<FileVisitOption> visitOptions = options.followLinks()
+                ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+                : EnumSet.noneOf(FileVisitOption.class);
+
+        PrintTreeFileVisitor visitor = new PrintTreeFileVisitor();
+        try {
+            int maxDepth = options.getMaxDepth();
+            Files.walkFileTree(root, visitOptions,
+                    (maxDepth > 0) ? maxDepth : Integer.MAX_VALUE,
+                    (stats != null) ? new TimedFileVisitor(visitor, stats) : visitor);
+        } catch (IOException ex) {
+            // the files of a dir could not be spilled or read back
+            reportFailed(root, 0, false, ex);
+        }
+    }
+    
+    private static final class HeldDirLine {
+        final DirEntry dir;
+        final int level;
+        final boolean isLast;
+        final String change;
+        
+        HeldDirLine(DirEntry dir, int level, boolean isLast, String change) {
+            this.dir = dir;
+            this.level = level;
+            this.isLast = isLast;
+            this.change = change;
+        }
+    }
+    
+    private class PrintTreeFileVisitor extends SimpleFileVisitor<Path> {
+        private int curDepth = 0;
+        
+        private final DirReader dirReader = new DirReader(options.followLinks());
+        
+        // files of each open dir, collected from the walk's own attributes
+        private final Deque<EntryBuffer> dirFilesStack = new ArrayDeque<>();
+        private final Deque<DirEntry> openDirs = new ArrayDeque<>();
+        
+        // with --du, the bytes seen so far below each open dir, by depth
+        private long[] dirUsage = new long[16];
+        
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+            throws IOException
+        {
+            DirEntry entry = DirReader.fromAttributes(dir, attrs);
+            if (curDepth == 0) {
+                renderer.enterDir(entry, 0, false, false, null);
+            } else {
+                if (!isListedDir(entry)) {
+                    // the walk has not read any of its entries yet
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                int check = checksDirs() ? checkDir(dir, attrs) : OPEN_DIR;
+                if (check == REPEATED_DIR) {
+                    printRepeatedDir(entry, curDepth, false);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (check == OTHER_FILE_SYSTEM) {
+                    printDirLine(entry, false);
+                    exitUnopenedDir(entry);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                int fileLimit = options.getFileLimit();
+                if (fileLimit > 0 && dirReader.count(dir, fileLimit + 1) > fileLimit) {
+                    printDirLine(entry, true);
+                    exitUnopenedDir(entry);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (options.excludeEmptyDirs()) {
+                    heldDirLines.add(new HeldDirLine(entry, curDepth, false, null));
+                } else {
+                    printDirLine(entry, false);
+                }
+            }
+            openDirs.push(entry);
+            if (watcher != null) {
+                watcher.addDir(entry, curDepth);
+            }
+            if (options.showDiskUsage()) {
+                if (curDepth == dirUsage.length) {
+                    dirUsage = Arrays.copyOf(dirUsage, curDepth * 2);
+                }
+                dirUsage[curDepth] = attrs.size();
+            }
+            curDepth++;
+            int memoryLimit = options.getMemoryLimit();
+            dirFilesStack.push(new EntryBuffer(null,
+                    (memoryLimit > 0) ? memoryLimit : Integer.MAX_VALUE));
+            return FileVisitResult.CONTINUE;
+        }
+        
+        private boolean isListedDir(DirEntry entry) {
+            return isListed(entry, false);
+        }
+        
+        private boolean isListedFile(DirEntry entry) {
+            return isListed(entry, true);
+        }
+        
+        private boolean isListed(DirEntry entry, boolean isFile) {
+            long start = (stats != null) ? System.nanoTime() : 0;
+            NameMatcher exclude = options.getExcludePatterns();
+            NameMatcher include = isFile ? options.getIncludePatterns() : null;
+            boolean isListed = (!entry.isHidden || options.includeAll())
+                    && (exclude == null || !exclude.matches(entry.name))
+                    && (include == null || include.matches(entry.name));
+            if (stats != null) {
+                stats.getFilter().record(System.nanoTime() - start);
+            }
+            return isListed;
+        }
+        
+        private void printDirLine(DirEntry entry, boolean exceedsLimit) {
+            printHeldDirLines();
+            writeDirLine(entry, curDepth, false, exceedsLimit, null);
+        }
+        
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            throws IOException
+        {
+            if (attrs.isDirectory()) {
+                // a dir at the depth limit, which the walk does not open
+                DirEntry entry = DirReader.fromAttributes(file, attrs);
+                if (isListedDir(entry)) {
+                    printDirLine(entry, false);
+                    exitUnopenedDir(entry);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            if (attrs.isRegularFile() || attrs.isSymbolicLink()) {
+                DirEntry entry = DirReader.fromAttributes(file, attrs);
+                if (isListedFile(entry)) {
+                    if (options.showDiskUsage()) {
+                        // -d still counts the files it does not list
+                        dirUsage[curDepth - 1] += entry.size;
+                    }
+                    if (!options.includeOnlyDirs()) {
+                        dirFilesStack.peek().add(entry);
+                        if (watcher != null) {
+                            watcher.addEntry(entry);
+                        }
+                    }
+                }
+            }
+            return FileVisitResult.CONTINUE;
+        }
+        
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc)
+            throws IOException
+        {
+            if (exc instanceof FileSystemLoopException) {
+                // a link back to a dir that is still open
+                DirEntry entry = dirReader.readEntry(file);
+                if (entry != null) {
+                    if (isListedDir(entry)) {
+                        printRepeatedDir(entry, curDepth, false);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            }
+            File f = file.toFile();
+            boolean isDir = f.isDirectory();
+            if (isDir) {
+                incDirCount(1);
+            } else {
+                incFileCount(1);
+            }
+
+            printHeldDirLines();
+            reportFailed(file, curDepth, false, exc);
+            
+            return isDir ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+            throws IOException
+        {
+            try (EntryBuffer files = dirFilesStack.pop()) {
+                printFiles(files);
+            }
+            curDepth--;
+            long usage = 0;
+            if (options.showDiskUsage()) {
+                usage = dirUsage[curDepth];
+                if (curDepth > 0) {
+                    dirUsage[curDepth - 1] += usage;
+                } else {
+                    totalUsage = usage;
+                }
+            }
+            releaseDirLine(openDirs.pop(), curDepth, usage);
+            return FileVisitResult.CONTINUE;
+        }
+        
+        // a dir at the depth or file limit, or on another file system, only adds its own size
+        private void exitUnopenedDir(DirEntry entry) {
+            if (watcher != null) {
+                watcher.addEntry(entry);
+            }
+            if (options.showDiskUsage()) {
+                dirUsage[curDepth - 1] += entry.size;
+            }
+            renderer.exitDir(entry, curDepth, entry.size);
+        }
+        
+        private void printFiles(EntryBuffer files) throws IOException {
+            EntryBuffer.Cursor cursor = files.cursor();
+            DirEntry file = cursor.next();
+            if (file != null) {
+                printHeldDirLines();
+            }
+            while (file != null) {
+                DirEntry next = cursor.next();
+                renderer.file(file, curDepth, next == null, null, null);
+                file = next;
+            }
+            incFileCount(files.size());
+        }
+    }
+    
+    private int incDirCount(int incAmount) {
+        if (incAmount < 0) {
+            return dirCount;
+        }
+        return dirCount += incAmount;
+    }
+
+    private int incFileCount(int incAmount) {
+        if (incAmount < 0) {
+            return fileCount;
+        }
+        return fileCount += incAmount;
+    }
+
+    private void reportFailed(Path path, int level, boolean isLast, IOException ex) {
+        failedCount++;
+        if (ex instanceof ReadTimeoutException) {
+            timedOutCount++;
+        }
+        renderer.failed(path, level, isLast, ex);
+    }
+
+    // returns the bytes used by dir and everything listed below it
+    private long printDir(DirEntry dir, int level, boolean isLastDir) {
+        int nextLevel = level + 1;
+        boolean isOpened = isWithinDepth(level);
+        if (isOpened && level > 0 && checksDirs()) {
+            int check = checkDir(dir.path, null);
+            if (check == REPEATED_DIR) {
+                printRepeatedDir(dir, level, isLastDir);
+                return 0;
+            }
+            isOpened = (check == OPEN_DIR);
+        }
+        if (isOpened && options.getMemoryLimit() > 0 && !scanner.isIndexed()) {
+            return printDirStreamed(dir, level, isLastDir);
+        }
+        
+        DirScanner.Listing listing = isOpened
+                ? scanner.list(dir.path, level == 0)
+                : DirScanner.Listing.EMPTY;
+        if (listing.error != null) {
+            return printFailedDir(dir, level, isLastDir, listing.error);
+        }
+        printDirLine(dir, level, isLastDir, isOpened, listing.exceedsLimit, null);
+        watchDir(dir, level, isOpened && !listing.exceedsLimit);
+        
+        DirEntry[] subDirs = listing.subDirs;
+        if (isWithinDepth(nextLevel)) {
+            // start reading the sub dirs while the files are being printed
+            scanner.prefetch(subDirs);
+        }
+        
+        long usage = dir.size + listing.otherFilesSize;
+        DirEntry[] files = listing.files;
+        // the last of the entries printed first is only the last entry
+        // of the dir when none of the others follow
+        if (options.listDirsFirst()) {
+            usage += printSubDirs(subDirs, nextLevel,
+                    files.length == 0 || options.includeOnlyDirs());
+            usage += printListedFiles(files, nextLevel, true);
+        } else {
+            usage += printListedFiles(files, nextLevel, subDirs.length == 0);
+            usage += printSubDirs(subDirs, nextLevel, true);
+        }
+        releaseDirLine(dir, level, usage);
+        return usage;
+    }
+    
+    // returns the bytes of the files, which --du counts with -d too;
+    // endsDir tells whether the last file is the last entry of its dir
+    private long printListedFiles(DirEntry[] files, int level, boolean endsDir) {
+        long usage = 0;
+        int lastIndex = files.length - 1;
+        for (int i = 0; i <= lastIndex; i++) {
+            usage += files[i].size;
+            if (!options.includeOnlyDirs()) {
+                incFileCount(1);
+                printFile(files[i], level, endsDir && i == lastIndex, null);
+            }
+        }
+        return usage;
+    }
+    
+    // endsDir tells whether the last sub dir is the last entry of its dir
+    private long printSubDirs(DirEntry[] subDirs, int level, boolean endsDir) {
+        long usage = 0;
+        int lastIndex = subDirs.length - 1;
+        for (int i = 0; i <= lastIndex; i++) {
+            usage += printDir(subDirs[i], level, endsDir && i == lastIndex);
+        }
+        return usage;
+    }
+
+    // renders one entry behind the read position, so the last one is known
+    // without holding the whole directory in memory
+    private long printDirStreamed(DirEntry dir, int level, boolean isLastDir) {
+        DirScanner.StreamedListing listing;
+        try {
+            listing = scanner.stream(dir.path, level == 0, options.getMemoryLimit());
+        } catch (IOException ex) {
+            return printFailedDir(dir, level, isLastDir, ex);
+        }
+        
+        int nextLevel = level + 1;
+        long usage = dir.size;
+        try {
+            printDirLine(dir, level, isLastDir, true, listing.exceedsLimit, null);
+            watchDir(dir, level, !listing.exceedsLimit);
+            
+            if (options.listDirsFirst()) {
+                usage += printSubDirs(openSorted(listing.subDirs), nextLevel,
+                        listing.files.size() == 0 || options.includeOnlyDirs());
+                usage += printListedFiles(openSorted(listing.files), nextLevel, true);
+            } else {
+                usage += printListedFiles(openSorted(listing.files), nextLevel,
+                        listing.subDirs.size() == 0);
+                usage += printSubDirs(openSorted(listing.subDirs), nextLevel, true);
+            }
+        } catch (IOException ex) {
+            // the spilled entries could not be read back; what was listed of
+            // the dir is followed by the failure, and the dir is still exited
+            printHeldDirLines();
+            reportFailed(dir.path, nextLevel, true, ex);
+        } finally {
+            try {
+                listing.close();
+            } catch (IOException ex) {
+                // leftover spill files are in the temp dir
+            }
+        }
+        releaseDirLine(dir, level, usage);
+        return usage;
+    }
+    
+    // a dir that could not be read, or timed out, takes the place of its
+    // line, as the file walk reports it; returns the dir's own size
+    private long printFailedDir(DirEntry dir, int level, boolean isLastDir, IOException ex) {
+        if (watcher != null) {
+            watcher.addEntry(dir);
+        }
+        printHeldDirLines();
+        if (level > 0) {
+            incDirCount(1);
+        }
+        reportFailed(dir.path, level, isLastDir, ex);
+        return dir.size;
+    }
+    
+    // past the first file count, the files are only added up
+    private long printListedFiles(EntryBuffer.Cursor files, int level, boolean endsDir)
+            throws IOException {
+        long usage = 0;
+        int firstFileCount = options.getFirstFileCount();
+        int listedCount = 0;
+        DirEntry file = files.next();
+        while (file != null) {
+            DirEntry next = files.next();
+            usage += file.size;
+            if (!options.includeOnlyDirs() && (firstFileCount == 0 || listedCount < firstFileCount)) {
+                listedCount++;
+                incFileCount(1);
+                printFile(file, level,
+                        endsDir && (next == null || listedCount == firstFileCount), null);
+            }
+            file = next;
+        }
+        return usage;
+    }
+    
+    private long printSubDirs(EntryBuffer.Cursor subDirs, int level, boolean endsDir)
+            throws IOException {
+        long usage = 0;
+        DirEntry subDir = subDirs.next();
+        while (subDir != null) {
+            DirEntry next = subDirs.next();
+            usage += printDir(subDir, level, endsDir && next == null);
+            subDir = next;
+        }
+        return usage;
+    }
+    
+    // the buffer sorts what it still holds when the cursor is opened
+    private EntryBuffer.Cursor openSorted(EntryBuffer entries) throws IOException {
+        long start = (stats != null) ? System.nanoTime() : 0;
+        EntryBuffer.Cursor cursor = entries.cursor();
+        if (stats != null) {
+            stats.getSort().record(System.nanoTime() - start);
+        }
+        return cursor;
+    }
+    
+    // a dir beyond the depth limit or on another file system was not opened,
+    // so it is not known to be empty and is never pruned, as with the file walk
+    private void printDirLine(DirEntry dir, int level, boolean isLastDir, boolean isOpened,
+            boolean exceedsLimit, String change) {
+        if (options.excludeEmptyDirs() && isOpened && !exceedsLimit && level > 0) {
+            heldDirLines.add(new HeldDirLine(dir, level, isLastDir, change));
+            return;
+        }
+        printHeldDirLines();
+        writeDirLine(dir, level, isLastDir, exceedsLimit, change);
+    }
+    
+    private void watchDir(DirEntry dir, int level, boolean isOpened) {
+        if (watcher == null) {
+            return;
+        }
+        if (isOpened) {
+            watcher.addDir(dir, level);
+        } else {
+            watcher.addEntry(dir);
+        }
+    }
+    
+    // called once everything below dir has been printed
+    private void releaseDirLine(DirEntry dir, int level, long usage) {
+        int lastHeld = heldDirLines.size() - 1;
+        if (lastHeld >= 0 && heldDirLines.get(lastHeld).dir == dir) {
+            // nothing below it was printed, so it is pruned
+            heldDirLines.remove(lastHeld);
+            return;
+        }
+        renderer.exitDir(dir, level, usage);
+    }
+    
+    private void printHeldDirLines() {
+        for (HeldDirLine held : heldDirLines) {
+            writeDirLine(held.dir, held.level, held.isLast, false, held.change);
+        }
+        heldDirLines.clear();
+    }
+    
+    private void writeDirLine(DirEntry dir, int level, boolean isLastDir, boolean exceedsLimit,
+            String change) {
+        if (level > 0) {
+            incDirCount(1);
+        }
+        renderer.enterDir(dir, level, isLastDir, exceedsLimit, change);
+    }
+
+    private boolean checksDirs() {
+        return listedDirs != null || rootStore != null || rootDevice != FileKeySet.UNKNOWN_DEVICE;
+    }
+    
+    private void startDirChecks() {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class);
+            Object fileKey = getFileKey(root, attrs);
+            if (options.followLinks()) {
+                listedDirs = new FileKeySet();
+                listedDirs.add(fileKey);
+            }
+            if (options.stayOnFileSystem()) {
+                rootDevice = FileKeySet.deviceOf(fileKey);
+                if (rootDevice == FileKeySet.UNKNOWN_DEVICE) {
+                    rootStore = Files.getFileStore(root);
+                }
+            }
+        } catch (IOException ex) {
+            // the walk reports the start dir it cannot read
+        }
+    }
+    
+    // whether a dir below the start dir is opened; attrs are read, following
+    // links, when they are null
+    private int checkDir(Path dir, BasicFileAttributes attrs) {
+        Object fileKey;
+        try {
+            if (attrs == null) {
+                attrs = Files.readAttributes(dir, BasicFileAttributes.class);
+            }
+            fileKey = getFileKey(dir, attrs);
+            if (rootStore != null && !rootStore.equals(Files.getFileStore(dir))) {
+                return OTHER_FILE_SYSTEM;
+            }
+        } catch (IOException ex) {
+            // opened as usual, which reports what cannot be read
+            return OPEN_DIR;
+        }
+        if (rootDevice != FileKeySet.UNKNOWN_DEVICE && FileKeySet.deviceOf(fileKey) != rootDevice) {
+            return OTHER_FILE_SYSTEM;
+        }
+        if (listedDirs != null && !listedDirs.add(fileKey)) {
+            return REPEATED_DIR;
+        }
+        return OPEN_DIR;
+    }
+    
+    // file systems without file keys are told apart by the real path
+    private static Object getFileKey(Path dir, BasicFileAttributes attrs) throws IOException {
+        Object fileKey = attrs.fileKey();
+        return (fileKey != null) ? fileKey : dir.toRealPath();
+    }
+    
+    // a dir that was listed where it was first reached adds nothing more
+    private void printRepeatedDir(DirEntry dir, int level, boolean isLast) {
+        Path linkTarget = null;
+        if (Files.isSymbolicLink(dir.path)) {
+            try {
+                linkTarget = Files.readSymbolicLink(dir.path);
+            } catch (IOException ex) {
+                // shown without its target
+            }
+        }
+        if (watcher != null) {
+            watcher.addEntry(dir);
+        }
+        printHeldDirLines();
+        incDirCount(1);
+        renderer.repeatedDir(dir, level, isLast, linkTarget);
+    }
+
+    private boolean isWithinDepth(int level) {
+        int maxDepth = options.getMaxDepth();
+        return maxDepth == 0 || level < maxDepth;
+    }
+
+    private void printFile(DirEntry file, int level, boolean isLast, String change) {
+        if (watcher != null) {
+            watcher.addEntry(file);
+        }
+        printHeldDirLines();
+        renderer.file(file, level, isLast, change, null);
+    }
+    
+    private void printTree() {
+        scanner = createScanner(archive);
+        try {
+            DirEntry baseEntry = scanner.readEntry(root);
+            if (baseEntry != null && baseEntry.isDir) {
+                if (options.getIndexFile() != null) {
+                    useIndex();
+                }
+                totalUsage = printDir(baseEntry, 0, false);
+            }
+        } finally {
+            scanner.shutdown();
+        }
+    }
+
+    // archive is null for a dir on the file system
+    private DirScanner createScanner(ArchiveTree archive) {
+        // --du also adds up the files that -d does not list
+        DirScanner dirScanner = new DirScanner(!options.includeOnlyDirs() || options.showDiskUsage(),
+                options.includeAll(), options.followLinks(), scanPool);
+        dirScanner.setEntryLimit(options.getFileLimit());
+        dirScanner.setPatterns(options.getIncludePatterns(), options.getExcludePatterns());
+        dirScanner.setOrder(EntryOrder.create(options.getSortOrder()), options.getFirstFileCount());
+        dirScanner.setStats(stats);
+        if (archive != null) {
+            dirScanner.setSource(archive);
+        } else {
+            dirScanner.setGuard(readPool, options.getReadTimeout(), options.getRetryCount());
+        }
+        return dirScanner;
+    }
+
+    private void printComparison() {
+        scanner = createScanner(archive);
+        otherScanner = createScanner(otherArchive);
+        otherSide = Executors.newSingleThreadExecutor();
+        try {
+            DirEntry baseEntry = scanner.readEntry(root);
+            DirEntry otherEntry = otherScanner.readEntry(options.getCompareDir());
+            if (baseEntry != null && baseEntry.isDir && otherEntry != null && otherEntry.isDir) {
+                compareDir(baseEntry, otherEntry, 0, false);
+            }
+        } finally {
+            otherSide.shutdownNow();
+            scanner.shutdown();
+            otherScanner.shutdown();
+        }
+    }
+
+    // merges the sorted listings of dir and of its counterpart in the other
+    // tree; either is null when the dir only exists on one side, and then
+    // everything below it is marked the same way
+    private void compareDir(DirEntry dir, DirEntry other, int level, boolean isLastDir) {
+        int nextLevel = level + 1;
+        DirScanner.Listing listing = DirScanner.Listing.EMPTY;
+        DirScanner.Listing otherListing = DirScanner.Listing.EMPTY;
+        if (isWithinDepth(level)) {
+            Future<DirScanner.Listing> pendingOther = (other != null)
+                    ? listOther(other.path, level == 0, isWithinDepth(nextLevel))
+                    : null;
+            if (dir != null) {
+                listing = scanner.list(dir.path, level == 0);
+            }
+            if (pendingOther != null) {
+                otherListing = join(pendingOther);
+            }
+        }
+        DirEntry shown = (dir != null) ? dir : other;
+        // a side that could not be read cannot be compared below this dir
+        IOException error = (listing.error != null) ? listing.error : otherListing.error;
+        if (error != null) {
+            printFailedDir(shown, level, isLastDir, error);
+            return;
+        }
+        String change = (other == null) ? TreeRenderer.ADDED
+                : (dir == null) ? TreeRenderer.REMOVED
+                : null;
+        printDirLine(shown, level, isLastDir, isWithinDepth(level),
+                listing.exceedsLimit || otherListing.exceedsLimit, change);
+        if (isWithinDepth(nextLevel)) {
+            scanner.prefetch(listing.subDirs);
+        }
+        
+        DirEntry[] files = listing.files;
+        DirEntry[] otherFiles = otherListing.files;
+        DirEntry[] subDirs = listing.subDirs;
+        DirEntry[] otherSubDirs = otherListing.subDirs;
+        boolean filesEndDir = subDirs.length == 0 && otherSubDirs.length == 0;
+        int i = 0;
+        int j = 0;
+        while (i < files.length || j < otherFiles.length) {
+            int order = compareNames(files, i, otherFiles, j);
+            DirEntry file;
+            String fileChange;
+            if (order < 0) {
+                file = files[i++];
+                fileChange = TreeRenderer.ADDED;
+            } else if (order > 0) {
+                file = otherFiles[j++];
+                fileChange = TreeRenderer.REMOVED;
+            } else {
+                file = files[i];
+                fileChange = (file.size != otherFiles[j].size
+                        || file.lastModified != otherFiles[j].lastModified)
+                        ? TreeRenderer.CHANGED
+                        : null;
+                i++;
+                j++;
+            }
+            incFileCount(1);
+            printFile(file, nextLevel,
+                    filesEndDir && i == files.length && j == otherFiles.length, fileChange);
+        }
+        
+        i = 0;
+        j = 0;
+        while (i < subDirs.length || j < otherSubDirs.length) {
+            int order = compareNames(subDirs, i, otherSubDirs, j);
+            DirEntry subDir = (order <= 0) ? subDirs[i++] : null;
+            DirEntry otherSubDir = (order >= 0) ? otherSubDirs[j++] : null;
+            compareDir(subDir, otherSubDir, nextLevel,
+                    i == subDirs.length && j == otherSubDirs.length);
+        }
+        releaseDirLine(shown, level, shown.size);
+    }
+
+    private static int compareNames(DirEntry[] entries, int i, DirEntry[] otherEntries, int j) {
+        if (i == entries.length) {
+            return 1;
+        }
+        if (j == otherEntries.length) {
+            return -1;
+        }
+        return DirReader.BY_NAME.compare(entries[i], otherEntries[j]);
+    }
+
+    // the other scanner is only used from the other side's thread
+    private Future<DirScanner.Listing> listOther(final Path dir, final boolean isStartDir,
+            final boolean prefetchSubDirs) {
+        return otherSide.submit(new Callable<DirScanner.Listing>() {
+            @Override
+            public DirScanner.Listing call() {
+                DirScanner.Listing listing = otherScanner.list(dir, isStartDir);
+                if (prefetchSubDirs) {
+                    otherScanner.prefetch(listing.subDirs);
+                }
+                return listing;
+            }
+        });
+    }
+
+    private static DirScanner.Listing join(Future<DirScanner.Listing> listing) {
+        try {
+            return listing.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // listed as empty, like an unreadable dir
+        }
+        return DirScanner.Listing.EMPTY;
+    }
+
+    private void useIndex() {
+        Path indexFile = options.getIndexFile();
+        try {
+            TreeIndex index = TreeIndex.refresh(indexFile, root, new DirReader(options.followLinks()));
+            scanner.useIndex(index, root);
+        } catch (IOException ex) {
+            // still list the tree, just without the snapshot
+            warnings.add("unable to use index " + indexFile + ": " + ex.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lists trees with one set of {@link TreeOptions}. A walker is thread safe
+ * and meant to be reused: every call walks with its own state, and only the
+ * read-ahead, hashing and timed read pools, started on first use, are shared
+ * between calls. Closing the walker stops those pools.
+ *
+ * <pre>
+ * try (TreeWalker walker = new TreeWalker(options);
+ *         Stream&lt;TreeEntry&gt; entries = walker.stream(root)) {
+ *     entries.filter(TreeEntry::isRegularFile).limit(10).forEach(System.out::println);
+ * }
+ * </pre>
+ */
+public final class TreeWalker implements AutoCloseable {
+    private final TreeOptions options;
+
+    // guarded by this
+    private ForkJoinPool scanPool = null;
+    private ExecutorService hashPool = null;
+    private ExecutorService readPool = null;
+    private boolean isClosed = false;
+
+    public TreeWalker(TreeOptions options) {
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+        this.options = options;
+    }
+
+    public TreeOptions getOptions() { return options; }
+
+    // walks root on the calling thread, handing each entry to visitor; root
+    // may also be a ZIP, JAR or TAR file, whose entries are listed sorted
+    public TreeSummary walk(Path root, TreeVisitor visitor) throws IOException {
+        return walk(root, new VisitorRenderer(visitor), null);
+    }
+
+    // root and the dirs and files below it. Unless sorting, listing dirs
+    // first, pruning, hashing or listing an archive, the walk goes only as far as the stream is
+    // pulled, each dir followed by what is below it, and a parallel stream
+    // splits it by sub tree; otherwise it is in listing order and runs ahead
+    // of the stream by a bounded number of entries. What walk passes to
+    // visitFailed is streamed as an entry with its failure. Closing the
+    // stream stops the walk.
+    public Stream<TreeEntry> stream(Path root) throws IOException {
+        boolean isArchive = ArchiveTree.isArchive(root);
+        if (!isArchive) {
+            requireDirectory(root);
+        }
+        if (!isArchive && TreeSpliterator.canWalk(options)) {
+            checkOpen();
+            TreeSpliterator spliterator = new TreeSpliterator(options, root);
+            return StreamSupport.stream(spliterator, false).onClose(spliterator);
+        }
+        WalkIterator iterator = new WalkIterator(this, root);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator);
+    }
+
+    // for the command line, which renders the events itself and may watch the tree afterwards
+    TreeSummary walk(Path root, TreeRenderer renderer, TreeWatcher watcher) throws IOException {
+        ArchiveTree archive = readArchive(root);
+        if (archive == null) {
+            requireDirectory(root);
+        }
+        Path compareDir = options.getCompareDir();
+        TreeWalk walk = new TreeWalk(options, root, getScanPool(), getHashPool(), getReadPool());
+        walk.setArchives(archive, (compareDir != null) ? readArchive(compareDir) : null);
+        return walk.run(renderer, watcher);
+    }
+
+    @Override
+    public synchronized void close() {
+        isClosed = true;
+        if (scanPool != null) {
+            scanPool.shutdownNow();
+        }
+        if (hashPool != null) {
+            hashPool.shutdownNow();
+        }
+        if (readPool != null) {
+            readPool.shutdownNow();
+        }
+    }
+
+    // a ZIP or TAR is listed from its headers, always sorted; null for anything else
+    private ArchiveTree readArchive(Path path) throws IOException {
+        if (!ArchiveTree.isArchive(path)) {
+            return null;
+        }
+        if (options.getHashName() != null || options.getIndexFile() != null) {
+            throw new IOException("an archive cannot be hashed or indexed");
+        }
+        return ArchiveTree.read(path);
+    }
+
+    // the file walk does not follow a link given as the start dir
+    private void requireDirectory(Path root) throws IOException {
+        boolean isDir = options.isSorted()
+                ? Files.isDirectory(root)
+                : Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS);
+        if (!isDir) {
+            throw new NotDirectoryException(root.toString());
+        }
+    }
+
+    private synchronized ForkJoinPool getScanPool() {
+        checkOpen();
+        if (options.getThreadCount() <= 1) {
+            return null;
+        }
+        if (scanPool == null) {
+            scanPool = new ForkJoinPool(options.getThreadCount());
+        }
+        return scanPool;
+    }
+
+    private synchronized ExecutorService getHashPool() {
+        checkOpen();
+        if (options.getHashName() == null) {
+            return null;
+        }
+        if (hashPool == null) {
+            int threadCount = options.getThreadCount();
+            hashPool = Executors.newFixedThreadPool(
+                    (threadCount > 0) ? threadCount : Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable task) {
+                            // an unclosed walker does not keep the JVM alive
+                            Thread thread = new Thread(task, "tree-hash");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return hashPool;
+    }
+
+    // unbounded, since a thread blocked on a hung mount is left behind for
+    // good; the reads not given up on end at once
+    private synchronized ExecutorService getReadPool() {
+        checkOpen();
+        if (options.getReadTimeout() == 0) {
+            return null;
+        }
+        if (readPool == null) {
+            readPool = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "tree-read");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return readPool;
+    }
+
+    private synchronized void checkOpen() {
+        if (isClosed) {
+            throw new IllegalStateException("walker is closed");
+        }
+    }
+}
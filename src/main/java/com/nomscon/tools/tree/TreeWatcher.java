@@ -0,0 +1,286 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a model of the listed tree up to date after the first listing. Each
+ * opened directory is registered with a WatchService; events only mark their
+ * directory as dirty, and once the events stop for a debounce window the
+ * dirty directories are read again and compared with the model, so a burst
+ * of writes is reported once, as added, removed and changed entries.
+ * The listed entries are held in a compact {@link TreeModel}.
+ */
+final class TreeWatcher {
+    // a steady stream of events is still reported this often
+    private final static int MAX_DEBOUNCE_ROUNDS = 10;
+
+    private final TreeConfig config;
+    private final DirReader reader;
+    private final WatchService watchService;
+    private final Map<Path, WatchedDir> dirs = new HashMap<>();
+    private final TreeModel model = new TreeModel();
+    private final TimeFormat timeFormat = TimeFormat.compile("%F %T");
+    private final StringBuilder line = new StringBuilder(256);
+
+    // followLinks matches how the first listing read the tree
+    TreeWatcher(TreeConfig config, Path root, boolean followLinks) throws IOException {
+        this.config = config;
+        this.reader = new DirReader(followLinks);
+        this.watchService = root.getFileSystem().newWatchService();
+    }
+
+    // an opened dir, whose entries are added next
+    public void addDir(DirEntry dir, int level) {
+        WatchedDir parent = dirs.get(dir.path.getParent());
+        int index = model.add((parent != null) ? parent.index : TreeModel.NONE, dir);
+        try {
+            WatchKey key = dir.path.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            dirs.put(dir.path, new WatchedDir(level, key, index));
+        } catch (IOException ex) {
+            // vanished or too many watches, its changes go unnoticed
+        }
+    }
+
+    // a listed entry of an opened dir, including dirs that were not opened
+    public void addEntry(DirEntry entry) {
+        WatchedDir parent = dirs.get(entry.path.getParent());
+        if (parent != null) {
+            model.add(parent.index, entry);
+        }
+    }
+
+    // runs until the thread is interrupted or the root goes away
+    public void watch() {
+        long debounceMillis = config.getDebounceMillis();
+        try {
+            while (!dirs.isEmpty()) {
+                TreeSet<Path> dirtyDirs = new TreeSet<>();
+                markDirty(watchService.take(), dirtyDirs);
+                // coalesce the burst until it has been quiet for a window
+                for (int round = 1; round < MAX_DEBOUNCE_ROUNDS; round++) {
+                    WatchKey key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    markDirty(key, dirtyDirs);
+                }
+                printChanges(dirtyDirs);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // stopped
+        } finally {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                // nothing left to watch anyway
+            }
+        }
+    }
+
+    private void markDirty(WatchKey key, TreeSet<Path> dirtyDirs) {
+        // every kind of event, overflow included, is handled by reading the dir again
+        key.pollEvents();
+        dirtyDirs.add((Path) key.watchable());
+        key.reset();
+        drainPending(dirtyDirs);
+    }
+
+    private void drainPending(TreeSet<Path> dirtyDirs) {
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            key.pollEvents();
+            dirtyDirs.add((Path) key.watchable());
+            key.reset();
+        }
+    }
+
+    private void printChanges(TreeSet<Path> dirtyDirs) {
+        List<Change> changes = new ArrayList<>();
+        // parents sort before their sub dirs, whose rescan a removal makes moot
+        for (Path dir : dirtyDirs) {
+            rescan(dir, changes);
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        Collections.sort(changes, Change.BY_PATH);
+        if (config.outputAsNdjson()) {
+            for (Change change : changes) {
+                line.setLength(0);
+                line.append("{\"change\":\"").append(change.getName())
+                        .append("\",\"type\":\"").append(change.entry.isDir ? "directory" : "file")
+                        .append("\",\"path\":");
+                JsonRenderer.appendString(line, change.entry.path.toString());
+                Log.println(line.append('}'));
+            }
+        } else {
+            Log.println();
+            line.setLength(0);
+            Log.println(timeFormat.appendTo(line.append('['), System.currentTimeMillis()).append(']'));
+            for (Change change : changes) {
+                line.setLength(0);
+                line.append(change.kind).append(' ').append(change.entry.path);
+                if (change.entry.isDir) {
+                    line.append(change.entry.path.getFileSystem().getSeparator());
+                }
+                Log.println(line);
+            }
+        }
+        Log.flush();
+    }
+
+    private void rescan(Path dirPath, List<Change> changes) {
+        WatchedDir dir = dirs.get(dirPath);
+        if (dir == null) {
+            return;
+        }
+        List<DirEntry> current;
+        try {
+            current = reader.read(dirPath);
+        } catch (IOException ex) {
+            if (!dirs.containsKey(dirPath.getParent())) {
+                // the start dir itself is gone
+                dirs.clear();
+            }
+            // otherwise the event on its parent reports it
+            return;
+        }
+        Map<String, Integer> previous = new HashMap<>();
+        for (int child = model.getFirstChild(dir.index); child != TreeModel.NONE;
+                child = model.getNextSibling(child)) {
+            previous.put(model.getName(child), child);
+        }
+        for (DirEntry entry : current) {
+            if (!isListed(entry)) {
+                continue;
+            }
+            Integer old = previous.remove(entry.name);
+            if (old == null) {
+                added(entry, dir.level + 1, changes);
+            } else if (model.isDir(old) != entry.isDir) {
+                removed(old, entry.path, changes);
+                added(entry, dir.level + 1, changes);
+            } else if (!entry.isDir && (model.getSize(old) != entry.size
+                    || model.getLastModified(old) != entry.lastModified)) {
+                model.update(old, entry.size, entry.lastModified);
+                changes.add(new Change('~', entry));
+            }
+        }
+        for (Map.Entry<String, Integer> old : previous.entrySet()) {
+            removed(old.getValue(), dirPath.resolve(old.getKey()), changes);
+        }
+    }
+
+    private void added(DirEntry entry, int level, List<Change> changes) {
+        changes.add(new Change('+', entry));
+        if (!entry.isDir || !isOpened(entry, level)) {
+            addEntry(entry);
+            return;
+        }
+        addDir(entry, level);
+        try {
+            for (DirEntry child : reader.read(entry.path)) {
+                if (isListed(child)) {
+                    added(child, level + 1, changes);
+                }
+            }
+        } catch (IOException ex) {
+            // unreadable dirs are watched as empty
+        }
+    }
+
+    private void removed(int index, Path path, List<Change> changes) {
+        changes.add(new Change('-', model.toEntry(index, path)));
+        WatchedDir dir = dirs.remove(path);
+        if (dir != null) {
+            dir.key.cancel();
+            for (int child = model.getFirstChild(index); child != TreeModel.NONE;
+                    child = model.getNextSibling(child)) {
+                removed(child, path.resolve(model.getName(child)), changes);
+            }
+        }
+        model.remove(index);
+    }
+
+    // the same choices the first listing made
+    private boolean isOpened(DirEntry dir, int level) {
+        int maxDepth = config.getMaxDepth();
+        if (maxDepth > 0 && level >= maxDepth) {
+            return false;
+        }
+        int fileLimit = config.getFileLimit();
+        try {
+            return fileLimit == 0 || reader.count(dir.path, fileLimit + 1) <= fileLimit;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    private boolean isListed(DirEntry entry) {
+        NameMatcher exclude = config.getExcludePatterns();
+        if ((entry.isHidden && !config.includeAll())
+                || (exclude != null && exclude.matches(entry.name))) {
+            return false;
+        }
+        if (entry.isDir) {
+            return true;
+        }
+        // links that are not followed are files, as both engines list them
+        if (!entry.isFile) {
+            return false;
+        }
+        NameMatcher include = config.getIncludePatterns();
+        return !config.includeOnlyDirs()
+                && (include == null || include.matches(entry.name));
+    }
+
+    private static final class WatchedDir {
+        final int level;
+        final WatchKey key;
+        // the dir in the model
+        final int index;
+
+        WatchedDir(int level, WatchKey key, int index) {
+            this.level = level;
+            this.key = key;
+            this.index = index;
+        }
+    }
+
+    private static final class Change {
+        final static Comparator<Change> BY_PATH = new Comparator<Change>() {
+            @Override
+            public int compare(Change a, Change b) {
+                return a.entry.path.compareTo(b.entry.path);
+            }
+        };
+
+        final char kind;
+        final DirEntry entry;
+
+        Change(char kind, DirEntry entry) {
+            this.kind = kind;
+            this.entry = entry;
+        }
+
+        String getName() {
+            return (kind == '+') ? "added" : (kind == '-') ? "removed" : "changed";
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Passes the events of a walk on to a public {@link TreeVisitor}, as
+ * {@link TreeEntry} objects. The entries of the open dirs are kept so
+ * each dir is exited with the entry it was entered with.
+ */
+final class VisitorRenderer implements TreeRenderer {
+    private final TreeVisitor visitor;
+    private final List<TreeEntry> openDirs = new ArrayList<>();
+
+    VisitorRenderer(TreeVisitor visitor) {
+        if (visitor == null) {
+            throw new NullPointerException("visitor");
+        }
+        this.visitor = visitor;
+    }
+
+    @Override
+    public void startTree() {
+    }
+
+    @Override
+    public void enterDir(DirEntry dir, int level, boolean isLast, boolean exceedsLimit, String change) {
+        TreeEntry entry = new TreeEntry(dir, level, isLast, exceedsLimit, false, change, null);
+        while (openDirs.size() <= level) {
+            openDirs.add(null);
+        }
+        openDirs.set(level, entry);
+        visitor.enterDirectory(entry);
+    }
+
+    @Override
+    public void file(DirEntry file, int level, boolean isLast, String change, String digest) {
+        visitor.visitFile(new TreeEntry(file, level, isLast, false, false, change, digest));
+    }
+
+    @Override
+    public void failed(Path path, int level, boolean isLast, IOException ex) {
+        visitor.visitFailed(path, level, ex);
+    }
+
+    @Override
+    public void repeatedDir(DirEntry dir, int level, boolean isLast, Path linkTarget) {
+        visitor.visitRepeatedDirectory(
+                new TreeEntry(dir, level, isLast, false, true, null, null), linkTarget);
+    }
+
+    @Override
+    public void exitDir(DirEntry dir, int level, long usage) {
+        TreeEntry entry = (level < openDirs.size()) ? openDirs.get(level) : null;
+        if (entry == null || entry.getPath() != dir.path) {
+            entry = new TreeEntry(dir, level, false, false, false, null, null);
+        } else {
+            openDirs.set(level, null);
+        }
+        visitor.exitDirectory(entry, usage);
+    }
+
+    @Override
+    public void report(int dirCount, int fileCount, int failedCount, int timedOutCount,
+            long usage) {
+    }
+
+    @Override
+    public void endTree() {
+    }
+}
@@ -0,0 +1,148 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands the entries of a walk running on its own thread over to the thread
+ * that iterates, through a bounded queue, so the walk is never more than
+ * the queue length ahead. Running it closes it, which stops the walk.
+ */
+final class WalkIterator implements Iterator<TreeEntry>, Runnable {
+    private final static int QUEUE_SIZE = 256;
+    // follows the last entry; a failure that ends the walk is queued instead
+    private final static Object END = new Object();
+
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Thread walkThread;
+    private Object next = null;
+    private volatile boolean isClosed = false;
+
+    WalkIterator(final TreeWalker walker, final Path root) {
+        walkThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    walker.walk(root, new TreeVisitor() {
+                        @Override
+                        public void enterDirectory(TreeEntry dir) {
+                            put(dir);
+                        }
+
+                        @Override
+                        public void visitFile(TreeEntry file) {
+                            put(file);
+                        }
+
+                        @Override
+                        public void visitFailed(Path path, int depth, IOException ex) {
+                            put(failedEntry(path, depth, ex));
+                        }
+
+                        @Override
+                        public void visitRepeatedDirectory(TreeEntry dir, Path linkTarget) {
+                            put(dir);
+                        }
+                    });
+                    put(END);
+                } catch (Cancelled ex) {
+                    // closed while walking
+                } catch (IOException ex) {
+                    putFailure(new UncheckedIOException(ex));
+                } catch (RuntimeException | Error ex) {
+                    putFailure(ex);
+                }
+            }
+        }, "tree-walk");
+        // an abandoned iteration does not keep the JVM alive
+        walkThread.setDaemon(true);
+        walkThread.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            if (isClosed) {
+                return false;
+            }
+            try {
+                next = queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                run();
+                throw new IllegalStateException("interrupted while waiting for the walk", ex);
+            }
+            if (next instanceof Throwable) {
+                Throwable failure = (Throwable) next;
+                next = END;
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+        }
+        return next != END;
+    }
+
+    @Override
+    public TreeEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        TreeEntry entry = (TreeEntry) next;
+        next = null;
+        return entry;
+    }
+
+    // closes the iteration
+    @Override
+    public void run() {
+        isClosed = true;
+        walkThread.interrupt();
+        queue.clear();
+    }
+
+    private void put(Object item) {
+        try {
+            if (isClosed) {
+                throw new Cancelled();
+            }
+            queue.put(item);
+        } catch (InterruptedException ex) {
+            throw new Cancelled();
+        }
+    }
+
+    private void putFailure(Throwable failure) {
+        try {
+            put(failure);
+        } catch (Cancelled ex) {
+            // nobody is iterating anymore
+        }
+    }
+
+    // an entry that could not be read, as it is still there or with only its path
+    private static TreeEntry failedEntry(Path path, int depth, IOException ex) {
+        DirEntry entry = new DirReader(false).readEntry(path);
+        if (entry == null) {
+            Path name = path.getFileName();
+            entry = new DirEntry(path, (name != null) ? name.toString() : path.toString(),
+                    false, false, false, 0, 0);
+        }
+        return new TreeEntry(entry, depth, false, false, false, null, null, ex);
+    }
+
+    // unwinds the walk once the iteration was closed
+    private static final class Cancelled extends RuntimeException {
+        private final static long serialVersionUID = 1L;
+
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Renders the listing as an XML document, a directory element per dir with
+ * its entries nested inside. With --du the total size of a dir is written
+ * as a size element after its entries, where it is known.
+ */
+final class XmlRenderer implements TreeRenderer {
+    private final TreeConfig config;
+    private final TimeFormat timeFormat;
+    private final StringBuilder line = new StringBuilder(256);
+
+    XmlRenderer(TreeConfig config) {
+        this.config = config;
+        // the zone and locale data are only loaded for -D
+        this.timeFormat = config.includeLastModifiedDate()
+                ? TimeFormat.compile(config.getTimeFormat())
+                : null;
+    }
+
+    @Override
+    public void startTree() {
+        Log.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        Log.println("<tree>");
+    }
+
+    @Override
+    public void enterDir(DirEntry dir, int level, boolean isLast, boolean exceedsLimit, String change) {
+        startLine(level).append("<directory name=");
+        appendAttribute(line, getName(dir, level));
+        appendChange(change).append('>');
+        Log.println(line);
+        if (exceedsLimit) {
+            startLine(level + 1).append("<error>more than ")
+                    .append(config.getFileLimit())
+                    .append(" entries, not opening dir</error>");
+            Log.println(line);
+        }
+    }
+
+    @Override
+    public void file(DirEntry file, int level, boolean isLast, String change, String digest) {
+        startLine(level).append("<file name=");
+        appendAttribute(line, getName(file, level));
+        appendChange(change);
+        if (config.includeFileSize() || config.includeFileSizeInBytes()) {
+            line.append(" size=\"").append(file.size).append('"');
+        }
+        if (config.includeLastModifiedDate()) {
+            appendAttribute(line.append(" time="), timeFormat.format(file.lastModified));
+        }
+        if (digest != null) {
+            line.append(' ').append(config.getHashName()).append("=\"").append(digest).append('"');
+        }
+        Log.println(line.append("/>"));
+    }
+
+    @Override
+    public void failed(Path path, int level, boolean isLast, IOException ex) {
+        startLine(level).append("<error name=");
+        appendAttribute(line, String.valueOf(path.getFileName()));
+        String reason = TreeRenderer.getReason(ex);
+        if (reason != null) {
+            appendAttribute(line.append(" reason="), reason);
+        }
+        line.append('>').append(ex.getClass().getSimpleName()).append("</error>");
+        Log.println(line);
+    }
+
+    @Override
+    public void repeatedDir(DirEntry dir, int level, boolean isLast, Path linkTarget) {
+        startLine(level).append("<reference name=");
+        appendAttribute(line, getName(dir, level));
+        if (linkTarget != null) {
+            line.append(" target=");
+            appendAttribute(line, linkTarget.toString());
+        }
+        Log.println(line.append("/>"));
+    }
+
+    @Override
+    public void exitDir(DirEntry dir, int level, long usage) {
+        if (config.showDiskUsage()) {
+            startLine(level + 1).append("<size>").append(usage).append("</size>");
+            Log.println(line);
+        }
+        Log.println(startLine(level).append("</directory>"));
+    }
+
+    @Override
+    public void report(int dirCount, int fileCount, int failedCount, int timedOutCount,
+            long usage) {
+        Log.println(startLine(0).append("<report>"));
+        Log.println(startLine(1).append("<directories>").append(dirCount).append("</directories>"));
+        if (!config.includeOnlyDirs()) {
+            Log.println(startLine(1).append("<files>").append(fileCount).append("</files>"));
+        }
+        if (failedCount > 0) {
+            Log.println(startLine(1).append("<failed>").append(failedCount).append("</failed>"));
+        }
+        if (timedOutCount > 0) {
+            Log.println(startLine(1).append("<timedOut>").append(timedOutCount).append("</timedOut>"));
+        }
+        if (config.showDiskUsage()) {
+            Log.println(startLine(1).append("<size>").append(usage).append("</size>"));
+        }
+        Log.println(startLine(0).append("</report>"));
+    }
+
+    @Override
+    public void endTree() {
+        Log.println("</tree>");
+    }
+
+    // the start dir keeps the path it was given
+    private String getName(DirEntry entry, int level) {
+        if (config.includeFullPath()) {
+            return entry.getAbsolutePath();
+        }
+        return (level == 0) ? config.getStartDirPath() : entry.name;
+    }
+
+    private StringBuilder appendChange(String change) {
+        if (change != null) {
+            line.append(" change=\"").append(change).append('"');
+        }
+        return line;
+    }
+
+    private StringBuilder startLine(int level) {
+        line.setLength(0);
+        for (int i = 0; i <= level; i++) {
+            line.append("  ");
+        }
+        return line;
+    }
+
+    // characters XML cannot carry at all are replaced
+    private static StringBuilder appendAttribute(StringBuilder sb, CharSequence value) {
+        sb.append('"');
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    if (c == '\t' || c == '\n' || c == '\r') {
+                        sb.append("&#").append((int) c).append(';');
+                    } else if (c < 0x20) {
+                        sb.append('\uFFFD');
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        return sb.append('"');
+    }
+}
@@ -0,0 +1,110 @@
+package com.nomscon.tools.tree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XXH64 with a seed of 0, fed incrementally. Input is consumed in 32 byte
+ * stripes; a partial stripe waits in a small buffer for the next update.
+ */
+final class Xxh64 extends ContentHash {
+    private final static long PRIME1 = 0x9E3779B185EBCA87L;
+    private final static long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private final static long PRIME3 = 0x165667B19E3779F9L;
+    private final static long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private final static long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private final ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1, v2, v3, v4;
+    private long totalLength;
+
+    Xxh64() {
+        reset();
+    }
+
+    @Override
+    void update(ByteBuffer buffer) {
+        ByteBuffer in = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        totalLength += in.remaining();
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && in.hasRemaining()) {
+                pending.put(in.get());
+            }
+            if (pending.hasRemaining()) {
+                return;
+            }
+            pending.flip();
+            consumeStripe(pending);
+            pending.clear();
+        }
+        while (in.remaining() >= 32) {
+            consumeStripe(in);
+        }
+        pending.put(in);
+    }
+
+    @Override
+    String finish() {
+        long h;
+        if (totalLength >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                    + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = PRIME5;
+        }
+        h += totalLength;
+
+        pending.flip();
+        while (pending.remaining() >= 8) {
+            h ^= round(0, pending.getLong());
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+        }
+        if (pending.remaining() >= 4) {
+            h ^= (pending.getInt() & 0xFFFFFFFFL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+        }
+        while (pending.hasRemaining()) {
+            h ^= (pending.get() & 0xFF) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        reset();
+        return toHex(h, 8);
+    }
+
+    private void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        totalLength = 0;
+        pending.clear();
+    }
+
+    private void consumeStripe(ByteBuffer in) {
+        v1 = round(v1, in.getLong());
+        v2 = round(v2, in.getLong());
+        v3 = round(v3, in.getLong());
+        v4 = round(v4, in.getLong());
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+}
@@ -0,0 +1,166 @@
+package com.nomscon.tools.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Reads the entries of a ZIP from its central directory, found through the
+ * end record at the end of the file, without touching any entry's data.
+ * ZIP64 sizes and offsets and the Unix time of the extended timestamp
+ * field are used when present.
+ */
+final class ZipReader {
+    private final static int END_SIGNATURE = 0x06054b50;
+    private final static int END_SIZE = 22;
+    private final static int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private final static int ZIP64_END_SIGNATURE = 0x06064b50;
+    private final static int HEADER_SIGNATURE = 0x02014b50;
+    private final static int HEADER_SIZE = 46;
+    private final static int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private final static int ZIP64_EXTRA = 0x0001;
+    private final static int TIMESTAMP_EXTRA = 0x5455;
+
+    private ZipReader() {
+    }
+
+    static void read(Path file, ArchiveTree tree) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int tailLength = (int) Math.min(size, END_SIZE + MAX_COMMENT_LENGTH);
+            ByteBuffer tail = readAt(channel, size - tailLength, tailLength);
+            int end = findEnd(tail);
+            if (end < 0) {
+                throw new IOException("no zip central directory in " + file);
+            }
+            long entryCount = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+            if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL
+                    || directoryOffset == 0xFFFFFFFFL) {
+                long endPosition = size - tailLength + end;
+                ByteBuffer zip64End = readZip64End(channel, endPosition);
+                if (zip64End != null) {
+                    entryCount = zip64End.getLong(32);
+                    directorySize = zip64End.getLong(40);
+                    directoryOffset = zip64End.getLong(48);
+                }
+            }
+            if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > size) {
+                throw new IOException("zip central directory out of range in " + file);
+            }
+            MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY,
+                    directoryOffset, directorySize);
+            directory.order(ByteOrder.LITTLE_ENDIAN);
+            readEntries(directory, entryCount, tree);
+        }
+    }
+
+    private static void readEntries(ByteBuffer directory, long entryCount, ArchiveTree tree)
+            throws IOException {
+        int position = 0;
+        byte[] nameBytes = new byte[256];
+        for (long i = 0; i < entryCount; i++) {
+            if (position + HEADER_SIZE > directory.limit()
+                    || directory.getInt(position) != HEADER_SIGNATURE) {
+                throw new IOException("bad zip central directory entry " + i);
+            }
+            int dosTime = directory.getShort(position + 12) & 0xFFFF;
+            int dosDate = directory.getShort(position + 14) & 0xFFFF;
+            long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            if (position + HEADER_SIZE + nameLength + extraLength + commentLength > directory.limit()) {
+                throw new IOException("bad zip central directory entry " + i);
+            }
+
+            if (nameLength > nameBytes.length) {
+                nameBytes = new byte[nameLength * 2];
+            }
+            directory.position(position + HEADER_SIZE);
+            directory.get(nameBytes, 0, nameLength);
+            String name = new String(nameBytes, 0, nameLength, StandardCharsets.UTF_8);
+
+            long lastModified = toMillis(dosDate, dosTime);
+            int extra = position + HEADER_SIZE + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = directory.getShort(extra) & 0xFFFF;
+                int length = directory.getShort(extra + 2) & 0xFFFF;
+                int data = extra + 4;
+                if (data + length > extraEnd) {
+                    break;
+                }
+                if (id == ZIP64_EXTRA && size == 0xFFFFFFFFL && length >= 8) {
+                    // the uncompressed size comes first
+                    size = directory.getLong(data);
+                } else if (id == TIMESTAMP_EXTRA && length >= 5 && (directory.get(data) & 1) != 0) {
+                    lastModified = (directory.getInt(data + 1) & 0xFFFFFFFFL) * 1000;
+                }
+                extra = data + length;
+            }
+
+            // links stored by zip -y are listed as they are, like the file walk lists them
+            boolean isDir = name.endsWith("/");
+            tree.add(name, isDir, !isDir, size, lastModified);
+            position = extraEnd + commentLength;
+        }
+    }
+
+    // the end record is the last signature with a comment that fits
+    private static int findEnd(ByteBuffer tail) {
+        for (int i = tail.limit() - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE
+                    && i + END_SIZE + (tail.getShort(i + 20) & 0xFFFF) <= tail.limit()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // null without a zip64 end record in front of the end record
+    private static ByteBuffer readZip64End(FileChannel channel, long endPosition)
+            throws IOException {
+        if (endPosition < 20) {
+            return null;
+        }
+        ByteBuffer locator = readAt(channel, endPosition - 20, 20);
+        if (locator.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+            return null;
+        }
+        ByteBuffer zip64End = readAt(channel, locator.getLong(8), 56);
+        return (zip64End.getInt(0) == ZIP64_END_SIGNATURE) ? zip64End : null;
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        channel.position(position);
+        if (ArchiveTree.readFully(channel, buffer) < length) {
+            throw new IOException("truncated zip");
+        }
+        return buffer;
+    }
+
+    // DOS times are local, to two seconds
+    private static long toMillis(int dosDate, int dosTime) {
+        try {
+            return LocalDateTime.of(
+                    1980 + (dosDate >> 9), (dosDate >> 5) & 0xF, dosDate & 0x1F,
+                    dosTime >> 11, (dosTime >> 5) & 0x3F, (dosTime & 0x1F) * 2)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException ex) {
+            return 0;
+        }
+    }
+}
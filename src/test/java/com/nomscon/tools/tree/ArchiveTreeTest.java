@@ -0,0 +1,165 @@
+package com.nomscon.tools.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Lists the archives in the test resources, which hold the same entries:
+ * explicit and implied dirs, a hidden file and a name longer than a tar
+ * header takes (a PAX header in sample.tar, a GNU long name in sample.tar.gz).
+ * The tars also hold a link.
+ */
+public class ArchiveTreeTest {
+    private final static String LONG_NAME = "dir/long-long-long-long-long-long-long-long-long-long"
+            + "-long-long-long-long-long-long-long-long-long-long-long-name.txt";
+    private final static List<String> ZIP_ENTRIES = Arrays.asList(
+            ".hidden 1", "dir/", "dir/a.txt 5", LONG_NAME + " 4", "dir/sub/", "dir/sub/b.bin 3",
+            "implied/", "implied/c.txt 0", "top.txt 4");
+    // 2020-01-02T03:04:06Z
+    private final static long TAR_TIME = 1577934246000L;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void listsZip() throws IOException, URISyntaxException {
+        Path zip = getResource("sample.zip");
+        assertTrue(ArchiveTree.isArchive(zip));
+        assertEquals(ZIP_ENTRIES, list(ArchiveTree.read(zip), zip));
+    }
+
+    @Test
+    public void listsTar() throws IOException, URISyntaxException {
+        Path tar = getResource("sample.tar");
+        assertTrue(ArchiveTree.isArchive(tar));
+        ArchiveTree tree = ArchiveTree.read(tar);
+        assertEquals(withLink(), list(tree, tar));
+        assertEquals(TAR_TIME, tree.readEntry(tar.resolve("dir")).lastModified);
+    }
+
+    @Test
+    public void listsGzippedTar() throws IOException, URISyntaxException {
+        Path tarGzip = getResource("sample.tar.gz");
+        assertTrue(ArchiveTree.isArchive(tarGzip));
+        assertEquals(withLink(), list(ArchiveTree.read(tarGzip), tarGzip));
+    }
+
+    @Test
+    public void handsNothingOverPastEntryLimit() throws IOException, URISyntaxException {
+        Path zip = getResource("sample.zip");
+        ArchiveTree tree = ArchiveTree.read(zip);
+        final List<DirEntry> entries = new ArrayList<>();
+        DirReader.EntryHandler handler = new DirReader.EntryHandler() {
+            @Override
+            public void accept(DirEntry entry) {
+                entries.add(entry);
+            }
+        };
+        assertFalse(tree.read(zip, handler, 3));
+        assertTrue(entries.isEmpty());
+        assertTrue(tree.read(zip, handler, 4));
+        assertEquals(4, entries.size());
+    }
+
+    @Test
+    public void rejectsEntryPastCentralDirectory() throws IOException, URISyntaxException {
+        byte[] zip = Files.readAllBytes(getResource("sample.zip"));
+        int entry = indexOf(zip, new byte[] { 'P', 'K', 1, 2 });
+        // the name length of the first entry
+        zip[entry + 28] = (byte) 0xFF;
+        zip[entry + 29] = (byte) 0xFF;
+        assertReadFails(write("bad.zip", zip), "bad zip central directory entry 0");
+    }
+
+    @Test
+    public void rejectsBadTarChecksum() throws IOException, URISyntaxException {
+        byte[] tar = Files.readAllBytes(getResource("sample.tar"));
+        tar[0] ^= 1;
+        assertReadFails(write("bad.tar", tar), "bad tar header checksum");
+    }
+
+    @Test
+    public void ignoresOtherFiles() throws IOException {
+        assertFalse(ArchiveTree.isArchive(write("notes.txt", "PK, but not a zip".getBytes(
+                StandardCharsets.US_ASCII))));
+        assertFalse(ArchiveTree.isArchive(temp.getRoot().toPath()));
+    }
+
+    private static List<String> withLink() {
+        List<String> entries = new ArrayList<>(ZIP_ENTRIES);
+        entries.add("dir/link 0");
+        Collections.sort(entries);
+        return entries;
+    }
+
+    // the paths below root, dirs with a trailing slash and files with their size, sorted
+    private static List<String> list(ArchiveTree tree, Path root) throws IOException {
+        List<String> entries = new ArrayList<>();
+        addEntries(tree, root, root, entries);
+        Collections.sort(entries);
+        return entries;
+    }
+
+    private static void addEntries(final ArchiveTree tree, final Path root, Path dir,
+            final List<String> entries) throws IOException {
+        final List<Path> subDirs = new ArrayList<>();
+        tree.read(dir, new DirReader.EntryHandler() {
+            @Override
+            public void accept(DirEntry entry) {
+                String path = root.relativize(entry.path).toString().replace('\\', '/');
+                if (entry.isDir) {
+                    entries.add(path + "/");
+                    subDirs.add(entry.path);
+                } else {
+                    entries.add(path + " " + entry.size);
+                }
+            }
+        }, 0);
+        for (Path subDir : subDirs) {
+            addEntries(tree, root, subDir, entries);
+        }
+    }
+
+    private void assertReadFails(Path archive, String message) {
+        try {
+            ArchiveTree.read(archive);
+            fail("read " + archive);
+        } catch (IOException ex) {
+            assertEquals(message, ex.getMessage());
+        }
+    }
+
+    private Path write(String name, byte[] content) throws IOException {
+        return Files.write(temp.getRoot().toPath().resolve(name), content);
+    }
+
+    private static Path getResource(String name) throws URISyntaxException {
+        return Paths.get(ArchiveTreeTest.class.getResource(name).toURI());
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + pattern.length), pattern)) {
+                return i;
+            }
+        }
+        throw new AssertionError("not found");
+    }
+}
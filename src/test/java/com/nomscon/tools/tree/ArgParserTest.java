@@ -0,0 +1,121 @@
+package com.nomscon.tools.tree;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArgParserTest {
+    private ArgParser parser;
+
+    @Before
+    public void createParser() {
+        parser = new ArgParser();
+        parser.addOption("a", "all", false, null, "all files");
+        parser.addOption("d", null, false, null, "dirs only");
+        parser.addOption("L", "level", true, "level", "max depth");
+        parser.addOption("P", null, true, "pattern", "include pattern");
+        parser.addOption(null, "dirsfirst", false, null, "dirs before files");
+        parser.addOption(null, "timeout", true, "ms", "read timeout");
+    }
+
+    @Test
+    public void splitsBundledFlags() throws UsageException {
+        ArgParser.CommandLine cmdLine = parser.parse(new String[] { "-ad" });
+        assertTrue(cmdLine.hasOption("a"));
+        assertTrue(cmdLine.hasOption("all"));
+        assertTrue(cmdLine.hasOption("d"));
+        assertFalse(cmdLine.hasOption("L"));
+    }
+
+    @Test
+    public void takesTheRestOfABundleAsValue() throws UsageException {
+        assertEquals("2", parser.parse(new String[] { "-L2" }).getOptionValue("L"));
+        assertEquals("2", parser.parse(new String[] { "-L", "2" }).getOptionValue("level"));
+        ArgParser.CommandLine cmdLine = parser.parse(new String[] { "-adL3" });
+        assertTrue(cmdLine.hasOption("a"));
+        assertTrue(cmdLine.hasOption("d"));
+        assertEquals("3", cmdLine.getOptionValue("L"));
+    }
+
+    @Test
+    public void takesLongValuesAfterEqualsOrAsNextArg() throws UsageException {
+        assertEquals("2", parser.parse(new String[] { "--level=2" }).getOptionValue("L"));
+        assertEquals("2", parser.parse(new String[] { "--level", "2" }).getOptionValue("L"));
+        assertEquals("", parser.parse(new String[] { "--timeout=" }).getOptionValue("timeout"));
+        assertEquals("a=b", parser.parse(new String[] { "-P", "a=b" }).getOptionValue("P"));
+    }
+
+    @Test
+    public void keepsEveryValueInOrder() throws UsageException {
+        ArgParser.CommandLine cmdLine = parser.parse(new String[] { "-P", "*.java", "-P*.xml" });
+        assertArrayEquals(new String[] { "*.java", "*.xml" }, cmdLine.getOptionValues("P"));
+        assertEquals("*.java", cmdLine.getOptionValue("P"));
+        assertNull(cmdLine.getOptionValues("L"));
+        assertNull(cmdLine.getOptionValue("a"));
+    }
+
+    @Test
+    public void mixesOptionsAndArgs() throws UsageException {
+        ArgParser.CommandLine cmdLine = parser.parse(
+                new String[] { "src", "-a", "docs", "--dirsfirst", "-" });
+        assertArrayEquals(new String[] { "src", "docs", "-" }, cmdLine.getArgs());
+        assertTrue(cmdLine.hasOption("a"));
+        assertTrue(cmdLine.hasOption("dirsfirst"));
+    }
+
+    @Test
+    public void endsOptionsAtDoubleDash() throws UsageException {
+        ArgParser.CommandLine cmdLine = parser.parse(new String[] { "-a", "--", "-d", "--level=2" });
+        assertTrue(cmdLine.hasOption("a"));
+        assertFalse(cmdLine.hasOption("d"));
+        assertFalse(cmdLine.hasOption("L"));
+        assertArrayEquals(new String[] { "-d", "--level=2" }, cmdLine.getArgs());
+    }
+
+    @Test
+    public void rejectsMissingValues() {
+        assertUsageError("Missing argument for option: L", "-L");
+        assertUsageError("Missing argument for option: L", "--level");
+        assertUsageError("Missing argument for option: L", "-L", "-a");
+        assertUsageError("Missing argument for option: L", "-L", "--all");
+        assertUsageError("Missing argument for option: timeout", "--timeout", "--dirsfirst");
+    }
+
+    @Test
+    public void takesValuesThatAreNotOptions() throws UsageException {
+        assertEquals("-5", parser.parse(new String[] { "-L", "-5" }).getOptionValue("L"));
+        assertEquals("--x", parser.parse(new String[] { "-P", "--x" }).getOptionValue("P"));
+    }
+
+    @Test
+    public void rejectsFlagsGivenValues() {
+        assertUsageError("Unrecognized option: --all=yes", "--all=yes");
+        assertUsageError("Unrecognized option: --dirsfirst=", "--dirsfirst=");
+    }
+
+    @Test
+    public void rejectsUnknownOptions() {
+        assertUsageError("Unrecognized option: -x", "-x");
+        assertUsageError("Unrecognized option: -x", "-axd");
+        assertUsageError("Unrecognized option: --nope", "--nope");
+        // short names are not long ones, even of an option that has both
+        assertUsageError("Unrecognized option: --d", "--d");
+        assertUsageError("Unrecognized option: --a", "--a");
+        assertUsageError("Unrecognized option: -t", "-t");
+    }
+
+    private void assertUsageError(String message, String... args) {
+        try {
+            parser.parse(args);
+            fail("parsed " + String.join(" ", args));
+        } catch (UsageException ex) {
+            assertEquals(message, ex.getMessage());
+        }
+    }
+}
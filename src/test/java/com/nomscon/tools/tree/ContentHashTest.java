@@ -0,0 +1,90 @@
+package com.nomscon.tools.tree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ContentHashTest {
+    private final static String FOX = "The quick brown fox jumps over the lazy dog";
+
+    @Test
+    public void xxh64KnownAnswers() {
+        assertEquals("ef46db3751d8e999", hash(ContentHash.XXH64, ascii("")));
+        assertEquals("d24ec4f1a98c6e5b", hash(ContentHash.XXH64, ascii("a")));
+        assertEquals("44bc2cf5ad770999", hash(ContentHash.XXH64, ascii("abc")));
+        assertEquals("0b242d361fda71bc", hash(ContentHash.XXH64, ascii(FOX)));
+        assertEquals("e146cb31b65bc21a", hash(ContentHash.XXH64, pattern()));
+    }
+
+    @Test
+    public void crc32cKnownAnswers() {
+        assertEquals("00000000", hash(ContentHash.CRC32C, ascii("")));
+        assertEquals("e3069283", hash(ContentHash.CRC32C, ascii("123456789")));
+        // RFC 3720, B.4
+        assertEquals("8a9136aa", hash(ContentHash.CRC32C, new byte[32]));
+        byte[] ones = new byte[32];
+        byte[] ascending = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            ones[i] = (byte) 0xFF;
+            ascending[i] = (byte) i;
+        }
+        assertEquals("62a8ab43", hash(ContentHash.CRC32C, ones));
+        assertEquals("46dd794e", hash(ContentHash.CRC32C, ascending));
+        assertEquals("22620404", hash(ContentHash.CRC32C, ascii(FOX)));
+        assertEquals("1b222f45", hash(ContentHash.CRC32C, pattern()));
+    }
+
+    @Test
+    public void sha256KnownAnswers() {
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                hash(ContentHash.SHA256, ascii("")));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                hash(ContentHash.SHA256, ascii("abc")));
+    }
+
+    // the digest does not depend on how the content is split into buffers
+    @Test
+    public void sameDigestWhateverTheBuffers() {
+        byte[] data = pattern();
+        for (String name : new String[] { ContentHash.XXH64, ContentHash.CRC32C, ContentHash.SHA256 }) {
+            String expected = hash(name, data);
+            ContentHash hash = ContentHash.create(name);
+            for (int chunk : new int[] { 1, 3, 7, 31, 33, 64, 1000 }) {
+                for (int from = 0; from < data.length; from += chunk) {
+                    hash.update(ByteBuffer.wrap(data, from, Math.min(chunk, data.length - from)));
+                }
+                assertEquals(name + " in chunks of " + chunk, expected, hash.finish());
+            }
+            // as files are read, through a direct buffer
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data).flip();
+            hash.update(direct);
+            assertEquals(name + " from a direct buffer", expected, hash.finish());
+        }
+    }
+
+    private static String hash(String name, byte[] data) {
+        ContentHash hash = ContentHash.create(name);
+        hash.update(ByteBuffer.wrap(data));
+        return hash.finish();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // 0 to 255 four times and "xyz", past several stripes and with a tail
+    private static byte[] pattern() {
+        byte[] data = new byte[1027];
+        for (int i = 0; i < 1024; i++) {
+            data[i] = (byte) i;
+        }
+        data[1024] = 'x';
+        data[1025] = 'y';
+        data[1026] = 'z';
+        return data;
+    }
+}
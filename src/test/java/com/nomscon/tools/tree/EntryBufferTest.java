@@ -0,0 +1,100 @@
+package com.nomscon.tools.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EntryBufferTest {
+    // more runs than are merged at once, so the merge takes several passes
+    private final static int ENTRY_COUNT = 200;
+
+    @Test
+    public void replaysSortedAcrossMergePasses() throws IOException {
+        List<String> names = createNames();
+        List<String> shuffled = new ArrayList<>(names);
+        Collections.shuffle(shuffled, new Random(42));
+        int spillFilesBefore = countSpillFiles();
+        try (EntryBuffer buffer = new EntryBuffer(EntryOrder.BY_NAME, 1)) {
+            for (String name : shuffled) {
+                buffer.add(createEntry(name));
+            }
+            assertEquals(ENTRY_COUNT, buffer.size());
+            assertEquals(names, replay(buffer.cursor()));
+        }
+        assertEquals(spillFilesBefore, countSpillFiles());
+    }
+
+    @Test
+    public void replaysUnsortedInAddedOrder() throws IOException {
+        List<String> names = createNames();
+        Collections.shuffle(names, new Random(7));
+        try (EntryBuffer buffer = new EntryBuffer(null, 1)) {
+            for (String name : names) {
+                buffer.add(createEntry(name));
+            }
+            assertEquals(names, replay(buffer.cursor()));
+        }
+    }
+
+    @Test
+    public void keepsAttributesThroughSpill() throws IOException {
+        Path path = Paths.get("dir", "file").toAbsolutePath();
+        DirEntry file = new DirEntry(path, "file", false, true, true, false, 12, 3456);
+        try (EntryBuffer buffer = new EntryBuffer(EntryOrder.BY_NAME, 1)) {
+            buffer.add(file);
+            EntryBuffer.Cursor cursor = buffer.cursor();
+            DirEntry entry = cursor.next();
+            assertEquals(path, entry.path);
+            assertEquals("file", entry.name);
+            assertEquals(false, entry.isDir);
+            assertEquals(true, entry.isFile);
+            assertEquals(true, entry.isHidden);
+            assertEquals(12, entry.size);
+            assertEquals(3456, entry.lastModified);
+            assertNull(cursor.next());
+        }
+    }
+
+    private static List<String> createNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            names.add(String.format("file%03d", i));
+        }
+        return names;
+    }
+
+    private static DirEntry createEntry(String name) {
+        return new DirEntry(Paths.get("dir", name).toAbsolutePath(), name, false, true, false, false,
+                name.length(), 0);
+    }
+
+    private static List<String> replay(EntryBuffer.Cursor cursor) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (DirEntry entry = cursor.next(); entry != null; entry = cursor.next()) {
+            names.add(entry.name);
+        }
+        return names;
+    }
+
+    private static int countSpillFiles() throws IOException {
+        Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
+        int count = 0;
+        try (DirectoryStream<Path> spillFiles = Files.newDirectoryStream(tempDir, "tree-*.spill")) {
+            for (Path spillFile : spillFiles) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,89 @@
+package com.nomscon.tools.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileHasherTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private ExecutorService pool;
+    private FileHasher hasher;
+    private Path dir;
+
+    @Before
+    public void createHasher() throws IOException {
+        pool = Executors.newSingleThreadExecutor();
+        hasher = new FileHasher(ContentHash.CRC32C, pool, null);
+        dir = temp.newFolder("dir").toPath();
+        Files.write(dir.resolve("file"), "123456789".getBytes(StandardCharsets.US_ASCII));
+        Files.createDirectory(dir.resolve("sub"));
+    }
+
+    @After
+    public void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void hashesRegularFiles() throws IOException, InterruptedException, ExecutionException {
+        DirEntry file = new DirReader(false).readEntry(dir.resolve("file"));
+        assertTrue(hasher.isHashed(file));
+        assertEquals("e3069283", hasher.submit(file).get());
+        assertFalse(hasher.isHashed(new DirReader(false).readEntry(dir.resolve("sub"))));
+    }
+
+    @Test
+    public void listsLinksWithoutDigest() throws IOException {
+        assumeTrue(createLink(dir.resolve("link"), dir.resolve("file")));
+        createLink(dir.resolve("dangling"), dir.resolve("missing"));
+        DirEntry link = new DirReader(false).readEntry(dir.resolve("link"));
+        assertNotNull(link);
+        assertTrue(link.isFile);
+        assertTrue(link.isLink);
+        assertFalse(hasher.isHashed(link));
+        assertFalse(hasher.isHashed(new DirReader(false).readEntry(dir.resolve("dangling"))));
+    }
+
+    @Test
+    public void keepsLinksUnhashedThroughSpill() throws IOException {
+        assumeTrue(createLink(dir.resolve("link"), dir.resolve("file")));
+        try (EntryBuffer buffer = new EntryBuffer(EntryOrder.BY_NAME, 1)) {
+            buffer.add(new DirReader(false).readEntry(dir.resolve("link")));
+            buffer.add(new DirReader(false).readEntry(dir.resolve("file")));
+            EntryBuffer.Cursor cursor = buffer.cursor();
+            DirEntry file = cursor.next();
+            DirEntry link = cursor.next();
+            assertTrue(hasher.isHashed(file));
+            assertTrue(link.isLink);
+            assertFalse(hasher.isHashed(link));
+        }
+    }
+
+    // false where links cannot be made, as on Windows without the privilege
+    private static boolean createLink(Path link, Path target) {
+        try {
+            Files.createSymbolicLink(link, target);
+            return true;
+        } catch (IOException | UnsupportedOperationException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.nomscon.tools.tree;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TreeIndexTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path root;
+    private Path indexFile;
+
+    @Before
+    public void createTree() throws IOException {
+        root = temp.newFolder("root").toPath();
+        Files.createDirectories(root.resolve("a/b"));
+        Files.createDirectories(root.resolve("c"));
+        write(root.resolve("z.txt"), "zz");
+        write(root.resolve("a/y"), "hello");
+        write(root.resolve("a/b/x"), "");
+        // dir times that a later change is sure to move
+        for (String dir : new String[] { "a/b", "a", "c", "" }) {
+            Files.setLastModifiedTime(root.resolve(dir), FileTime.fromMillis(1000));
+        }
+        indexFile = temp.getRoot().toPath().resolve("tree.idx");
+    }
+
+    @Test
+    public void writesHeaderAndRecords() throws IOException {
+        TreeIndex index = TreeIndex.refresh(indexFile, root, new DirReader(false));
+        assertEquals(root.toAbsolutePath().normalize().toString(), index.getRootPath());
+        assertEquals(7, index.getEntryCount());
+
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        byte[] magic = new byte[TreeIndex.MAGIC.length];
+        header.get(magic);
+        assertArrayEquals(TreeIndex.MAGIC, magic);
+        assertEquals(TreeIndex.VERSION, header.getInt());
+        assertEquals(7, header.getInt());
+        long stringsPosition = header.getLong();
+        assertEquals(TreeIndex.recordPosition(7), stringsPosition);
+
+        // files first, then dirs, each sorted by name
+        assertEquals(Arrays.asList("z.txt", "a/", "c/"), listChildren(index, 0));
+        assertEquals(2, index.getSize(index.getFirstChild(0)));
+        int a = index.getFirstChild(0) + 1;
+        assertEquals(Arrays.asList("y", "b/"), listChildren(index, a));
+        assertEquals(1000, index.getLastModified(a));
+        assertEquals(0, index.getChildCount(index.getFirstChild(0) + 2));
+        DirEntry y = index.toEntry(index.getFirstChild(a), root.resolve("a"));
+        assertEquals(root.resolve("a/y"), y.path);
+        assertTrue(y.isFile);
+        assertFalse(y.isDir);
+        assertEquals(5, y.size);
+    }
+
+    @Test
+    public void refreshKeepsCurrentIndexAndRebuildsChangedDirs() throws IOException {
+        TreeIndex.refresh(indexFile, root, new DirReader(false));
+        FileTime built = Files.getLastModifiedTime(indexFile);
+        Files.setLastModifiedTime(indexFile, FileTime.fromMillis(built.toMillis() - 60000));
+        FileTime unchanged = Files.getLastModifiedTime(indexFile);
+        TreeIndex.refresh(indexFile, root, new DirReader(false));
+        assertEquals(unchanged, Files.getLastModifiedTime(indexFile));
+
+        write(root.resolve("a/b/w"), "new");
+        Files.setLastModifiedTime(root.resolve("a/b"), FileTime.fromMillis(2000));
+        TreeIndex index = TreeIndex.refresh(indexFile, root, new DirReader(false));
+        assertEquals(8, index.getEntryCount());
+        int a = index.getFirstChild(0) + 1;
+        int b = index.getFirstChild(a) + 1;
+        assertEquals(Arrays.asList("w", "x"), listChildren(index, b));
+        assertEquals(2000, index.getLastModified(b));
+
+        // and is current again, though only the changed dir was read
+        Files.setLastModifiedTime(indexFile, unchanged);
+        TreeIndex.refresh(indexFile, root, new DirReader(false));
+        assertEquals(unchanged, Files.getLastModifiedTime(indexFile));
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        write(indexFile, "not an index at all, just some text that is long enough");
+        try {
+            TreeIndex.open(indexFile);
+            fail("opened a file without the magic");
+        } catch (IOException ex) {
+            assertEquals("not a tree index", ex.getMessage());
+        }
+        TreeIndex index = TreeIndex.refresh(indexFile, root, new DirReader(false));
+        assertEquals(7, index.getEntryCount());
+    }
+
+    // dirs with a trailing slash
+    private static List<String> listChildren(TreeIndex index, int dir) {
+        List<String> names = new ArrayList<>();
+        int first = index.getFirstChild(dir);
+        for (int i = first; i < first + index.getChildCount(dir); i++) {
+            names.add(index.getName(i) + (index.isDir(i) ? "/" : ""));
+        }
+        return names;
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}